@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+/*
+    ConditionRegistry keeps the mappings of the range checks it replaced, including their edges:
+    761 is fog, 781 a storm that Muzei shows as dust, and the 9xx codes have descriptions but no
+    artwork.  Art pack urls follow the art pack setting.
+ */
+public class TestConditionRegistry extends AndroidTestCase {
+
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mArtPack = getPreferences().getString(mContext.getString(R.string.pref_art_pack_key),
+                null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setArtPack(mArtPack);
+        super.tearDown();
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setArtPack(String artPack) {
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), artPack)
+                .commit();
+        // The settings listener is called on the main thread; don't wait for it.
+        SettingsSnapshot.reload(mContext);
+    }
+
+    public void testResources() {
+        assertEquals(R.drawable.ic_storm, ConditionRegistry.getIconResource(200));
+        assertEquals(R.drawable.ic_storm, ConditionRegistry.getIconResource(232));
+        assertEquals(-1, ConditionRegistry.getIconResource(233));
+        assertEquals(R.drawable.ic_snow, ConditionRegistry.getIconResource(511));
+        assertEquals(R.drawable.ic_fog, ConditionRegistry.getIconResource(761));
+        assertEquals(-1, ConditionRegistry.getIconResource(771));
+        assertEquals(R.drawable.ic_storm, ConditionRegistry.getIconResource(781));
+        assertEquals(R.drawable.ic_cloudy, ConditionRegistry.getIconResource(804));
+        assertEquals(-1, ConditionRegistry.getIconResource(900));
+        assertEquals(-1, ConditionRegistry.getIconResource(-1));
+        assertEquals(-1, ConditionRegistry.getIconResource(Integer.MAX_VALUE));
+
+        assertEquals(R.drawable.art_light_rain, ConditionRegistry.getArtResource(321));
+        assertEquals(R.drawable.art_light_clouds, ConditionRegistry.getArtResource(801));
+        assertEquals(-1, ConditionRegistry.getArtResource(505));
+    }
+
+    /*
+        Every kind must have its icon, art and image: the tables are checked against the kinds
+        when ConditionRegistry is loaded, and a table of the wrong size is refused.
+     */
+    public void testKindTables() {
+        for (int kind = 0; kind < ConditionTable.KIND_COUNT; kind++) {
+            assertNotNull(ConditionTable.getArtName(kind));
+        }
+        for (int code = 0; code < ConditionTable.CODE_LIMIT; code++) {
+            if (ConditionTable.getKind(code) != ConditionTable.KIND_NONE) {
+                assertTrue(ConditionRegistry.getIconResource(code) > 0);
+                assertTrue(ConditionRegistry.getArtResource(code) > 0);
+                assertNotNull(ConditionRegistry.getImageUrl(code));
+            }
+        }
+        ConditionTable.checkKindTable("kinds", ConditionTable.KIND_COUNT);
+        try {
+            ConditionTable.checkKindTable("short", ConditionTable.KIND_COUNT - 1);
+            fail("Error: a table missing a kind was accepted");
+        } catch (IllegalStateException expected) {
+            // The table would have been indexed past its end.
+        }
+    }
+
+    public void testStrings() {
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                ConditionRegistry.getString(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_3xx),
+                ConditionRegistry.getString(mContext, 300));
+        assertEquals(mContext.getString(R.string.condition_781),
+                ConditionRegistry.getString(mContext, 781));
+        assertEquals(mContext.getString(R.string.condition_962),
+                ConditionRegistry.getString(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 505),
+                ConditionRegistry.getString(mContext, 505));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1000),
+                ConditionRegistry.getString(mContext, 1000));
+    }
+
+    public void testImageUrls() {
+        assertTrue(ConditionRegistry.getImageUrl(781).contains("Raised_dust"));
+        assertTrue(ConditionRegistry.getImageUrl(200).contains("Thunderstorm"));
+        assertNull(ConditionRegistry.getImageUrl(900));
+    }
+
+    public void testArtPack() {
+        String sunshine = mContext.getString(R.string.pref_art_pack_sunshine);
+        String dogs = mContext.getString(R.string.pref_art_pack_cute_dogs);
+
+        setArtPack(sunshine);
+        assertTrue(Utility.usingLocalGraphics(mContext));
+        assertEquals(String.format(sunshine, "storm"), ConditionRegistry.getArtUrl(mContext, 781));
+        assertNull(ConditionRegistry.getArtUrl(mContext, 900));
+
+        setArtPack(dogs);
+        assertFalse(Utility.usingLocalGraphics(mContext));
+        assertEquals(String.format(dogs, "clouds"), ConditionRegistry.getArtUrl(mContext, 803));
+        assertSame("Error: art urls should be formatted once per art pack",
+                ConditionRegistry.getArtUrl(mContext, 803),
+                ConditionRegistry.getArtUrl(mContext, 802));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    A reloaded page notifies only the rows that changed, by date, and binding a row sets views
+    without formatting anything.  The logged timings under TestForecastAdapter compare the work a
+    bind used to do, formatting a row from its cursor, with what a bind does now.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = 1419033600000L;  // December 20th, 2014
+    private static final int ROWS = 1000;
+
+    private String mArtPack;
+    private ForecastAdapter mAdapter;
+    private final List<String> mEvents = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Sunshine's own art, so binding doesn't go to Glide.
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = getPreferences().getString(key, null);
+        getPreferences().edit()
+                .putString(key, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        SettingsSnapshot.reload(mContext);
+
+        mAdapter = new ForecastAdapter(mContext, new ForecastAdapter.ForecastAdapterOnClickHandler() {
+            @Override
+            public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+            }
+        }, new View(mContext), AbsListView.CHOICE_MODE_NONE);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mEvents.add("all");
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                mEvents.add("change " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mEvents.add("insert " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mEvents.add("remove " + positionStart + " " + itemCount);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), mArtPack)
+                .commit();
+        SettingsSnapshot.reload(mContext);
+        super.tearDown();
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    /*
+        A cursor in ForecastFragment's projection with the given days, where every day is 20
+        degrees at the high plus the extra degrees of its day, if any.
+     */
+    private static MatrixCursor createCursor(int firstDay, int days, int warmerDay) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+                "coord_lat", "coord_long"});
+        for (int day = firstDay; day < firstDay + days; day++) {
+            double high = day == warmerDay ? 25 : 20;
+            cursor.addRow(new Object[] {day, FIRST_DAY + day * DAY_IN_MILLIS, "Clear", high, 10,
+                    "94043", 800, 37.4, -122.1});
+        }
+        return cursor;
+    }
+
+    private ForecastPage createPage(int firstDay, int days, int warmerDay) {
+        return new ForecastPage(mContext, createCursor(firstDay, days, warmerDay), firstDay == 0);
+    }
+
+    public void testUnchangedPage() {
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE, -1));
+        assertEquals("[insert 0 " + ForecastAdapter.PAGE_SIZE + "]", mEvents.toString());
+
+        mEvents.clear();
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE, -1));
+        assertEquals("Error: an unchanged page shouldn't rebind anything",
+                "[]", mEvents.toString());
+    }
+
+    public void testChangedDay() {
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE, -1));
+        mEvents.clear();
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE, 3));
+        assertEquals("[change 3 1]", mEvents.toString());
+    }
+
+    public void testDayRolledOver() {
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE, -1));
+        mEvents.clear();
+        // Yesterday is gone and a new day was added at the end, nothing else changed.  The first
+        // page is built for the today layout, so its new first day is formatted differently.
+        mAdapter.swapPage(0, new ForecastPage(mContext,
+                createCursor(1, ForecastAdapter.PAGE_SIZE, -1), true));
+        assertEquals("[remove 0 1, change 0 1, insert 13 1]", mEvents.toString());
+        assertEquals(FIRST_DAY + DAY_IN_MILLIS, mAdapter.getRowAtPosition(0).mDate);
+    }
+
+    public void testShortPageDropsLaterPages() {
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE, -1));
+        mAdapter.swapPage(1, createPage(ForecastAdapter.PAGE_SIZE, 5, -1));
+        assertEquals(ForecastAdapter.PAGE_SIZE + 5, mAdapter.getItemCount());
+        mEvents.clear();
+
+        mAdapter.swapPage(0, createPage(0, ForecastAdapter.PAGE_SIZE - 2, -1));
+        assertEquals("[remove " + ForecastAdapter.PAGE_SIZE + " 5, remove 12 1, remove 12 1]",
+                mEvents.toString());
+        assertEquals(1, mAdapter.getPageCount());
+        assertFalse(mAdapter.hasMorePages());
+    }
+
+    public void testBindTimes() {
+        MatrixCursor cursor = createCursor(0, ForecastAdapter.PAGE_SIZE, -1);
+        mAdapter.swapPage(0, new ForecastPage(mContext, cursor, false));
+        ForecastAdapter.ForecastAdapterViewHolder holder =
+                mAdapter.onCreateViewHolder(new RecyclerView(mContext),
+                        mAdapter.getItemViewType(1));
+
+        // What a bind used to do before setting views: read and format a row from the cursor.
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            formatRow(cursor, i % ForecastAdapter.PAGE_SIZE);
+        }
+        long formatNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            mAdapter.onBindViewHolder(holder, 1 + i % (ForecastAdapter.PAGE_SIZE - 1));
+        }
+        long bindNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "formatting a row from its cursor: " + formatNanos / ROWS / 1000
+                + " us, binding a formatted row: " + bindNanos / ROWS / 1000 + " us");
+        assertEquals(mAdapter.getRowAtPosition(1).mDateText, holder.mDateView.getText());
+    }
+
+    private ForecastPage.Row formatRow(Cursor cursor, int position) {
+        cursor.moveToPosition(position);
+        return new ForecastPage.Row(mContext, cursor, false);
+    }
+}
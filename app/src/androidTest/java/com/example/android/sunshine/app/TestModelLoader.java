@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.content.Loader;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Model loaders deliver a model copied out of the cursor, and drop a load canceled by
+    abandoning the loader, as restarting it for a new location does.  Loaders live on the main
+    thread, so each step is posted there.
+ */
+public class TestModelLoader extends AndroidTestCase {
+
+    private static final String LOCATION = "model-loader-test";
+    private static final long DATE = WeatherContract.normalizeDate(1419033600000L);
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestLocation();
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weather.put(WeatherEntry.COLUMN_DATE, DATE);
+        weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestLocation();
+        super.tearDown();
+    }
+
+    private void deleteTestLocation() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + LocationEntry._ID + " FROM "
+                        + LocationEntry.TABLE_NAME + " WHERE "
+                        + LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[] {LOCATION});
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[] {LOCATION});
+    }
+
+    /*
+        Starts a detail loader on the main thread, and abandons it straight away if asked to.
+        The latch counts down when a model is delivered.
+     */
+    private ForecastDetail[] startDetailLoader(final boolean abandon, final CountDownLatch loaded) {
+        final ForecastDetail[] result = new ForecastDetail[1];
+        final Uri uri = WeatherEntry.buildWeatherLocationWithDate(LOCATION, DATE);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ForecastDetailLoader loader = new ForecastDetailLoader(mContext, uri,
+                        DetailFragment.DETAIL_COLUMNS);
+                loader.registerListener(0, new Loader.OnLoadCompleteListener<ForecastDetail>() {
+                    @Override
+                    public void onLoadComplete(Loader<ForecastDetail> loader,
+                                               ForecastDetail data) {
+                        result[0] = data;
+                        loader.reset();
+                        loaded.countDown();
+                    }
+                });
+                loader.startLoading();
+                if (abandon) {
+                    loader.abandon();
+                    loader.reset();
+                }
+            }
+        });
+        return result;
+    }
+
+    public void testLoadDetail() throws InterruptedException {
+        CountDownLatch loaded = new CountDownLatch(1);
+        ForecastDetail[] result = startDetailLoader(false, loaded);
+        assertTrue("Error: the detail wasn't delivered",
+                loaded.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        ForecastDetail detail = result[0];
+        assertNotNull(detail);
+        assertEquals(DATE, detail.mDate);
+        assertEquals(321, detail.mWeatherId);
+        assertEquals(75.0, detail.mHigh);
+        assertEquals(65.0, detail.mLow);
+        assertEquals(5.5f, detail.mWindSpeed);
+    }
+
+    public void testAbandonedLoadIsDropped() throws InterruptedException {
+        CountDownLatch loaded = new CountDownLatch(1);
+        startDetailLoader(true, loaded);
+        assertFalse("Error: an abandoned load was delivered",
+                loaded.await(1000, TimeUnit.MILLISECONDS));
+    }
+
+    /*
+        Holds a pool thread until released, and records the priority it ran at.
+     */
+    private static class BlockingLoader extends ModelLoader<Integer> {
+        private final CountDownLatch mStarted;
+        private final CountDownLatch mRelease;
+        volatile boolean mRan;
+        volatile int mPriority;
+
+        BlockingLoader(Context context, CountDownLatch started, CountDownLatch release) {
+            super(context, WeatherEntry.CONTENT_URI);
+            mStarted = started;
+            mRelease = release;
+        }
+
+        @Override
+        protected Integer loadInBackground() {
+            mRan = true;
+            mPriority = Process.getThreadPriority(Process.myTid());
+            mStarted.countDown();
+            try {
+                mRelease.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // let the load finish
+            }
+            return 0;
+        }
+    }
+
+    private void runOnMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /*
+        Loads run at background priority, and a load canceled while it waits for a thread is
+        taken off the queue rather than left there until a thread reaches it.
+     */
+    public void testCanceledLoadLeavesQueue() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(ModelLoader.POOL_SIZE);
+        CountDownLatch release = new CountDownLatch(1);
+        final BlockingLoader[] running = new BlockingLoader[ModelLoader.POOL_SIZE];
+        for (int i = 0; i < running.length; i++) {
+            running[i] = new BlockingLoader(mContext, started, release);
+        }
+        final BlockingLoader queued = new BlockingLoader(mContext, started, release);
+        final int[] queuedLoads = new int[2];
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (BlockingLoader loader : running) {
+                    loader.startLoading();
+                }
+            }
+        });
+        assertTrue("Error: the pool didn't start its loads",
+                started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                queued.startLoading();
+                queuedLoads[0] = ModelLoader.getQueuedLoadCount();
+                queued.reset();
+                queuedLoads[1] = ModelLoader.getQueuedLoadCount();
+            }
+        });
+        release.countDown();
+
+        assertEquals(1, queuedLoads[0]);
+        assertEquals("Error: the canceled load was left on the queue", 0, queuedLoads[1]);
+        for (BlockingLoader loader : running) {
+            assertEquals(Process.THREAD_PRIORITY_BACKGROUND, loader.mPriority);
+        }
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (BlockingLoader loader : running) {
+                    loader.reset();
+                }
+            }
+        });
+        assertFalse(queued.mRan);
+    }
+}
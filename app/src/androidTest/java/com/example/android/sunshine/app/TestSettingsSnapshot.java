@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/*
+    The settings snapshot follows preferences written off the main thread once reloaded, shows a
+    location status as soon as it is set, and still stores that status in the preferences.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utility.resetLocationStatus(mContext);
+        super.tearDown();
+    }
+
+    public void testLocation() {
+        String key = mContext.getString(R.string.pref_location_key);
+        String location = getPreferences().getString(key, null);
+        try {
+            getPreferences().edit().putString(key, "snapshot-test").commit();
+            SettingsSnapshot.reload(mContext);
+            assertEquals("snapshot-test", Utility.getPreferredLocation(mContext));
+        } finally {
+            getPreferences().edit().putString(key, location).commit();
+            SettingsSnapshot.reload(mContext);
+        }
+    }
+
+    public void testLocationStatus() {
+        SettingsSnapshot.setLocationStatus(mContext, SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+        assertEquals("Error: the status should be read back without waiting for the listener",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, Utility.getLocationStatus(mContext));
+        assertEquals("Error: the status should be in the preferences too",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                getPreferences().getInt(mContext.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+
+        Utility.resetLocationStatus(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                Utility.getLocationStatus(mContext));
+    }
+}
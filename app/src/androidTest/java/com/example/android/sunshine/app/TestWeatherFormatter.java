@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+
+/*
+    WeatherFormatter gives the same strings as the Utility helpers it replaced, and measures the
+    allocations of formatting a forecast list row both ways.  Compare the lines logged under
+    TestWeatherFormatter.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+    private static final String LOG_TAG = TestWeatherFormatter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int ROWS = 1000;
+
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mUnits = getPreferences().getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_units_key), mUnits)
+                .commit();
+        SettingsSnapshot.reload(mContext);
+        super.tearDown();
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setUnits(int units) {
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_units_key), mContext.getString(units))
+                .commit();
+        // The settings listener is called on the main thread; don't wait for it.
+        SettingsSnapshot.reload(mContext);
+    }
+
+    /*
+        The helpers as they were, to compare with.
+     */
+    private String legacyFormatTemperature(double temperature) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        boolean metric = prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric))
+                .equals(mContext.getString(R.string.pref_units_metric));
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    private String legacyFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return String.format(mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis)));
+        } else if (julianDay < currentJulianDay + 7) {
+            if (julianDay == currentJulianDay) {
+                return mContext.getString(R.string.today);
+            } else if (julianDay == currentJulianDay + 1) {
+                return mContext.getString(R.string.tomorrow);
+            }
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    public void testTemperaturesMatchLegacy() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        double[] temperatures = {-0.4, -0.5, -0.6, 0, 0.5, 1.5, 2.5, 12.49, 21.75, -17.5, -40,
+                65.5, 148.6, 151, -120.25, Double.NaN};
+        for (int units : new int[]{R.string.pref_units_metric, R.string.pref_units_imperial}) {
+            setUnits(units);
+            for (double temperature : temperatures) {
+                assertEquals("Error formatting " + temperature,
+                        legacyFormatTemperature(temperature), formatter.formatTemperature(temperature));
+            }
+            for (double temperature = -60; temperature < 60; temperature += 0.05) {
+                assertEquals("Error formatting " + temperature,
+                        legacyFormatTemperature(temperature), formatter.formatTemperature(temperature));
+            }
+        }
+    }
+
+    public void testDaysMatchLegacy() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        long today = System.currentTimeMillis();
+        for (int day = -3; day < 21; day++) {
+            long date = today + day * DAY_IN_MILLIS;
+            assertEquals(legacyFriendlyDayString(date, true),
+                    formatter.getFriendlyDayString(date, true));
+            assertEquals(legacyFriendlyDayString(date, false),
+                    formatter.getFriendlyDayString(date, false));
+            assertEquals(new SimpleDateFormat("MMMM dd").format(date),
+                    formatter.getFormattedMonthDay(date));
+        }
+    }
+
+    private static abstract class Row {
+        abstract void bind(int row);
+    }
+
+    // Allocations of binding ROWS rows, after binding them once to warm up.
+    private static long measureAllocations(String name, Row row) {
+        for (int i = 0; i < ROWS; i++) {
+            row.bind(i);
+        }
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ROWS; i++) {
+                row.bind(i);
+            }
+            long allocs = Debug.getThreadAllocCount();
+            Log.i(LOG_TAG, name + ": " + (double) allocs / ROWS + " objects per row");
+            return allocs;
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /*
+        What ForecastAdapter.onBindViewHolder formats for a row of a 14 day forecast: the day and
+        the high and low.
+     */
+    public void testBindAllocations() {
+        final long today = System.currentTimeMillis();
+        final WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        long legacy = measureAllocations("legacy", new Row() {
+            @Override
+            void bind(int row) {
+                legacyFriendlyDayString(today + (row % 14) * DAY_IN_MILLIS, row % 14 == 0);
+                legacyFormatTemperature(20 + row % 14);
+                legacyFormatTemperature(10 + row % 14);
+            }
+        });
+        long pooled = measureAllocations("WeatherFormatter", new Row() {
+            @Override
+            void bind(int row) {
+                formatter.getFriendlyDayString(today + (row % 14) * DAY_IN_MILLIS, row % 14 == 0);
+                formatter.formatTemperature(20 + row % 14);
+                formatter.formatTemperature(10 + row % 14);
+            }
+        });
+        assertTrue("Error: the formatter allocates as much as the old helpers", pooled < legacy);
+    }
+}
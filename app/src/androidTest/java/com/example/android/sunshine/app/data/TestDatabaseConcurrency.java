@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Measures what the UI sees while the sync writes: a reader thread runs the forecast list's
+    query over and over, the way a CursorLoader would, while a writer stores a large batch in one
+    transaction.  Run once with write-ahead logging and once with a rollback journal; the logged
+    read latencies show how long the list waits on the sync.
+ */
+public class TestDatabaseConcurrency extends AndroidTestCase {
+    private static final String LOG_TAG = TestDatabaseConcurrency.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "concurrency-test.db";
+    private static final int LOCATIONS = 200;
+    private static final int DAYS = 14;
+    private static final long DAY_SECONDS = 24 * 60 * 60;
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReadsDuringBulkInsertWithWal() throws Exception {
+        measureReadsDuringWrite("wal",
+                new WeatherDbHelper.Tuning(true, 4096, 500, "NORMAL"));
+    }
+
+    public void testReadsDuringBulkInsertWithJournal() throws Exception {
+        measureReadsDuringWrite("journal",
+                new WeatherDbHelper.Tuning(false, 4096, 500, "NORMAL"));
+    }
+
+    /*
+        What a write leaves in the log must be copied into the database by a checkpoint.
+     */
+    public void testCheckpoint() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE_NAME,
+                WeatherDbHelper.Tuning.DEFAULT);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        db.insert(WeatherEntry.TABLE_NAME, null, TestUtilities.createWeatherValues(locationId));
+
+        assertTrue("Error: the write's pages weren't checkpointed", helper.checkpoint() > 0);
+        helper.close();
+    }
+
+    /*
+        A rollback-journal database is tuned before its tables exist, so it must get the page
+        size it was asked for.
+     */
+    public void testNewDatabaseGetsPageSize() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // No onConfigure, so the page size is set after the tables are created.
+            return;
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE_NAME,
+                new WeatherDbHelper.Tuning(false, 8192, 500, "NORMAL"));
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(8192, DatabaseUtils.longForQuery(db, "PRAGMA page_size", null));
+        helper.close();
+    }
+
+    private void measureReadsDuringWrite(String name, WeatherDbHelper.Tuning tuning)
+            throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE_NAME, tuning);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+
+        final long[] locationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, location);
+        }
+
+        final WeatherProvider.QuerySpec query = WeatherProvider.buildQuery(
+                WeatherEntry.buildWeatherLocationWithStartDate("location-0",
+                        TestUtilities.TEST_DATE),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+
+        final Object lock = new Object();
+        final boolean[] writing = {true};
+        final List<Long> readMicros = Collections.synchronizedList(new ArrayList<Long>());
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (lock) {
+                        if (!writing[0]) {
+                            return;
+                        }
+                    }
+                    long start = System.nanoTime();
+                    Cursor cursor = db.rawQuery(query.sql, query.selectionArgs);
+                    // Like a CursorLoader, fill the window so the query really runs.
+                    cursor.getCount();
+                    cursor.close();
+                    readMicros.add((System.nanoTime() - start) / 1000);
+                }
+            }
+        });
+
+        long writeStart = SystemClock.elapsedRealtime();
+        reader.start();
+        db.beginTransaction();
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        try {
+            for (long locationId : locationIds) {
+                for (int day = 0; day < DAYS; day++) {
+                    upsert.upsert(locationId, TestUtilities.TEST_DATE + day * DAY_SECONDS,
+                            321, "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            db.endTransaction();
+        }
+        long writeMillis = SystemClock.elapsedRealtime() - writeStart;
+        int readsDuringWrite = readMicros.size();
+        synchronized (lock) {
+            writing[0] = false;
+        }
+        reader.join();
+
+        List<Long> sorted = new ArrayList<Long>(readMicros);
+        Collections.sort(sorted);
+        if (sorted.isEmpty()) {
+            Log.i(LOG_TAG, name + ": no read finished during a " + writeMillis + " ms write");
+        } else {
+            Log.i(LOG_TAG, name + ": " + readsDuringWrite + " reads during a " + writeMillis
+                    + " ms write, p50 " + percentile(sorted, 50)
+                    + " us, p99 " + percentile(sorted, 99)
+                    + " us, max " + sorted.get(sorted.size() - 1) + " us");
+        }
+
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the batch wasn't written", LOCATIONS * DAYS, cursor.getInt(0));
+        cursor.close();
+        helper.close();
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+}
@@ -17,10 +17,13 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 public class TestDb extends AndroidTestCase {
 
@@ -55,6 +58,7 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -105,6 +109,18 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        The first compaction switches the database to incremental auto-vacuum, so later ones can
+        give pages back without a full VACUUM.  It can't be set up front: the helper turns on WAL
+        before onConfigure, and that already writes the header that holds the setting.
+     */
+    public void testFirstCompactionUsesIncrementalAutoVacuum() {
+        SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        WeatherRetention.vacuum(db);
+        assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        db.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -234,4 +250,120 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    // The schema each past version of WeatherDbHelper.onCreate produced, oldest first, starting
+    // at WeatherDbHelper.OLDEST_MIGRATABLE_VERSION.  Keep these as they were shipped.
+    private static final String SQL_WEATHER_TABLE_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+    private static final String[][] PAST_SCHEMAS = {
+            // version 2
+            {"CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    SQL_WEATHER_TABLE_V2},
+            // version 3
+            {"CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, " +
+                    "etag TEXT, last_modified TEXT  );",
+                    SQL_WEATHER_TABLE_V2},
+            // version 4
+            {"CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, " +
+                    "etag TEXT, last_modified TEXT, forecast_digest TEXT  );",
+                    SQL_WEATHER_TABLE_V2},
+            // version 5
+            {"CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, " +
+                    "etag TEXT, last_modified TEXT, forecast_digest TEXT  );",
+                    SQL_WEATHER_TABLE_V2,
+                    "CREATE INDEX IF NOT EXISTS weather_location_date ON weather (location_id, date);"}
+    };
+
+    private static List<String> getColumns(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        List<String> columns = new ArrayList<String>();
+        int nameIndex = cursor.getColumnIndex("name");
+        while (cursor.moveToNext()) {
+            columns.add(cursor.getString(nameIndex));
+        }
+        cursor.close();
+        return columns;
+    }
+
+    private static List<String> getIndexes(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(
+                "SELECT sql FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL ORDER BY name",
+                null);
+        List<String> indexes = new ArrayList<String>();
+        while (cursor.moveToNext()) {
+            indexes.add(cursor.getString(0));
+        }
+        cursor.close();
+        return indexes;
+    }
+
+    /*
+        Seeds a database with the schema and some rows of every past version, opens it with the
+        current helper, and checks that it ends up with the same schema as a new database while
+        keeping its rows.
+     */
+    public void testUpgradeFromEveryVersion() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        List<String> currentLocationColumns = getColumns(db, WeatherContract.LocationEntry.TABLE_NAME);
+        List<String> currentWeatherColumns = getColumns(db, WeatherContract.WeatherEntry.TABLE_NAME);
+        List<String> currentHistoryColumns = getColumns(db, WeatherContract.HistoryEntry.TABLE_NAME);
+        List<String> currentIndexes = getIndexes(db);
+        db.close();
+
+        for (int i = 0; i < PAST_SCHEMAS.length; i++) {
+            int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i;
+            deleteTheDatabase();
+
+            db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+            for (String sql : PAST_SCHEMAS[i]) {
+                db.execSQL(sql);
+            }
+            long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue(locationRowId != -1);
+            long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    TestUtilities.createWeatherValues(locationRowId));
+            assertTrue(weatherRowId != -1);
+            db.setVersion(version);
+            db.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            db = dbHelper.getWritableDatabase();
+            String from = "Error upgrading from version " + version + ": ";
+
+            assertEquals(from + "location columns differ from a new database",
+                    currentLocationColumns, getColumns(db, WeatherContract.LocationEntry.TABLE_NAME));
+            assertEquals(from + "weather columns differ from a new database",
+                    currentWeatherColumns, getColumns(db, WeatherContract.WeatherEntry.TABLE_NAME));
+            assertEquals(from + "history columns differ from a new database",
+                    currentHistoryColumns, getColumns(db, WeatherContract.HistoryEntry.TABLE_NAME));
+            assertEquals(from + "indexes differ from a new database",
+                    currentIndexes, getIndexes(db));
+
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    WeatherContract.WeatherEntry._ID + " = " + weatherRowId, null, null, null, null);
+            assertTrue(from + "weather rows were lost", cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord(from + "weather row changed", cursor,
+                    TestUtilities.createWeatherValues(locationRowId));
+            cursor.close();
+
+            // Every step ran once, in order, and reported its time.
+            List<Integer> expectedSteps = new ArrayList<Integer>();
+            for (int step = version + 1; step <= db.getVersion(); step++) {
+                expectedSteps.add(step);
+            }
+            assertEquals(from + "wrong migrations ran",
+                    expectedSteps, new ArrayList<Integer>(dbHelper.getMigrationMillis().keySet()));
+            db.close();
+        }
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSnapshotCache extends AndroidTestCase {
+
+    private static final String[] PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_COORD_LAT
+    };
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationId));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private void assertSameRows(Uri uri) {
+        Cursor expected = mContext.getContentResolver().query(uri, PROJECTION, null, null,
+                DATE_ASC);
+        Cursor actual = ForecastSnapshotCache.query(mContext.getContentResolver(), uri,
+                PROJECTION, DATE_ASC);
+        assertEquals("Error: wrong number of days for " + uri, expected.getCount(),
+                actual.getCount());
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int i = 0; i < PROJECTION.length; i++) {
+                assertEquals("Error: different column names for " + PROJECTION[i],
+                        expected.getColumnName(i), actual.getColumnName(i));
+                String column = expected.getColumnName(i);
+                if (column.equals(WeatherEntry.COLUMN_SHORT_DESC)
+                        || column.equals(LocationEntry.COLUMN_LOCATION_SETTING)) {
+                    assertEquals(expected.getString(i), actual.getString(i));
+                } else {
+                    assertEquals("Error: different " + column + " for " + uri,
+                            expected.getDouble(i), actual.getDouble(i));
+                }
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+
+    public void testSameRowsAsProvider() {
+        long fourthDay = WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 3 * 86400000L);
+        assertSameRows(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        assertSameRows(WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, fourthDay));
+        assertSameRows(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, fourthDay));
+        // a day without weather
+        assertSameRows(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, 0));
+    }
+
+    public void testReadsAfterTheFirstHit() {
+        ForecastSnapshotCache.invalidateAll();
+        long hits = ForecastSnapshotCache.getHitCount();
+        long misses = ForecastSnapshotCache.getMissCount();
+
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        ForecastSnapshotCache.query(mContext.getContentResolver(), uri, PROJECTION, null).close();
+        ForecastSnapshotCache.query(mContext.getContentResolver(), uri, PROJECTION, null).close();
+        assertNotNull(ForecastSnapshotCache.peek(TestUtilities.TEST_LOCATION));
+
+        assertEquals(misses + 1, ForecastSnapshotCache.getMissCount());
+        assertEquals(hits + 2, ForecastSnapshotCache.getHitCount());
+    }
+
+    public void testWritesInvalidate() {
+        ForecastSnapshotCache.publish(mContext.getContentResolver(), TestUtilities.TEST_LOCATION);
+        ForecastSnapshot snapshot = ForecastSnapshotCache.peek(TestUtilities.TEST_LOCATION);
+        assertNotNull(snapshot);
+        assertEquals(TestProvider.createBulkInsertWeatherValues(mLocationId).length,
+                snapshot.getDayCount());
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertNull("Error: a delete left the snapshot cached",
+                ForecastSnapshotCache.peek(TestUtilities.TEST_LOCATION));
+        assertSameRows(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        The sync writing its validators doesn't change the forecast.
+     */
+    public void testSyncStateUpdateKeepsSnapshot() {
+        ForecastSnapshotCache.publish(mContext.getContentResolver(), TestUtilities.TEST_LOCATION);
+        ContentValues syncState = new ContentValues();
+        syncState.put(LocationEntry.COLUMN_ETAG, "\"v2\"");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, syncState,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationId)});
+        assertNotNull(ForecastSnapshotCache.peek(TestUtilities.TEST_LOCATION));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+public class TestForecastTable extends AndroidTestCase {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ForecastTable createDays(long locationId, int count) {
+        // Start small so adding grows the table.
+        ForecastTable days = new ForecastTable(1);
+        for (int i = 0; i < count; i++) {
+            days.add(locationId, TestUtilities.TEST_DATE + i * DAY_MILLIS, 321, "Asteroids",
+                    65 - i, 75 + i, 1.2, 1.3, 5.5, 1.1);
+        }
+        return days;
+    }
+
+    public void testAddGrows() {
+        ForecastTable days = createDays(7, 16);
+        assertEquals(16, days.size());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(7, days.getLocationId(i));
+            assertEquals(TestUtilities.TEST_DATE + i * DAY_MILLIS, days.getDate(i));
+            assertEquals(75.0 + i, days.getMaxTemp(i));
+        }
+    }
+
+    public void testBundleRoundTrip() {
+        ForecastTable days = createDays(7, 3);
+        ForecastTable copy = ForecastTable.fromBundle(days.toBundle());
+        assertEquals(days.size(), copy.size());
+        for (int i = 0; i < days.size(); i++) {
+            assertEquals(days.toContentValues(i), copy.toContentValues(i));
+        }
+        assertNull(ForecastTable.fromBundle(new Bundle()));
+        assertNull(ForecastTable.fromBundle(null));
+    }
+
+    public void testContentValuesLeaveOutUnknownLocation() {
+        ForecastTable days = createDays(ForecastTable.NO_LOCATION, 1);
+        assertFalse(days.toContentValues(0).containsKey(WeatherEntry.COLUMN_LOC_KEY));
+    }
+
+    /*
+        The provider stores a table like a bulkInsert of the same rows, and updates days it
+        already has.
+     */
+    public void testProviderStoresTable() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ForecastTable days = createDays(locationId, 10);
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                observer);
+        Bundle result = storeForecast(days, new ArrayList<ContentProviderOperation>(), null);
+        observer.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(observer);
+        assertEquals(10, result.getInt(WeatherContract.EXTRA_ROWS));
+
+        ForecastTable changed = new ForecastTable(1);
+        changed.add(locationId, TestUtilities.TEST_DATE, 800, "Clear", 1, 2, 3, 4, 5, 6);
+        result = storeForecast(changed, new ArrayList<ContentProviderOperation>(), null);
+        assertEquals(1, result.getInt(WeatherContract.EXTRA_ROWS));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(10, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(800, cursor.getInt(0));
+        cursor.close();
+    }
+
+    /*
+        Days without a location belong to the location an operation of the same call inserts,
+        and if any of it fails, none of it is stored.
+     */
+    public void testProviderStoresNewLocation() {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ForecastTable days = createDays(ForecastTable.NO_LOCATION, 3);
+        Bundle result = storeForecast(days, operations, new int[]{0, 0, 0});
+        assertEquals(3, result.getInt(WeatherContract.EXTRA_ROWS));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), null, null, null,
+                null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        try {
+            // The third day has no location to go with.
+            storeForecast(days, operations, new int[]{0, 0});
+            fail("Error: a day without a location was stored");
+        } catch (IllegalArgumentException e) {
+            // Expected: the whole call is rolled back.
+        }
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals("Error: the location of a failed store was kept", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private Bundle storeForecast(ForecastTable days,
+                                 ArrayList<ContentProviderOperation> operations,
+                                 int[] locationOperations) {
+        Bundle extras = days.toBundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_OPERATIONS, operations);
+        extras.putIntArray(WeatherContract.EXTRA_LOCATION_OPERATIONS, locationOperations);
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_STORE_FORECAST, null, extras);
+    }
+}
@@ -16,20 +16,29 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +521,211 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Bulk inserting days that are already stored updates them in place: same row ids, new
+        values, and no duplicates.
+     */
+    public void testBulkInsertUpdatesInPlace() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] firstValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, firstValues);
+        long[] firstIds = queryWeatherIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, firstIds.length);
+
+        ContentValues[] secondValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues values : secondValues) {
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 90.5);
+        }
+        int updateCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, secondValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, updateCount);
+
+        long[] secondIds = queryWeatherIds();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Before Honeycomb bulkInsert still replaces rows, which gives them new ids.
+            assertTrue("Error: bulkInsert should keep the ids of existing rows",
+                    Arrays.equals(firstIds, secondIds));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertUpdatesInPlace.  Error validating WeatherEntry " + i,
+                    cursor, secondValues[i]);
+        }
+        cursor.close();
+
+        // A row with a missing column is refused, not half written.
+        ContentValues incomplete = createBulkInsertWeatherValues(locationRowId)[0];
+        incomplete.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        assertEquals(0, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{incomplete}));
+    }
+
+    /*
+        Counts the notifications for one uri, on its own thread.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mThread;
+        final AtomicInteger mChanges = new AtomicInteger();
+
+        CountingObserver(HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mThread = thread;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges.incrementAndGet();
+        }
+    }
+
+    /*
+        A batch of inserts, a delete and an update is one transaction, and each uri it changed is
+        notified once, after it commits.  Days already stored keep their ids.
+     */
+    public void testApplyBatchNotifiesOncePerUri() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        long[] firstIds = queryWeatherIds();
+
+        HandlerThread thread = new HandlerThread("CountingObserverThread");
+        thread.start();
+        CountingObserver weatherObserver = new CountingObserver(thread);
+        CountingObserver locationObserver = new CountingObserver(thread);
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, false,
+                weatherObserver);
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, false,
+                locationObserver);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_ETAG, "\"v2\"")
+                .withSelection(LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationRowId)})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        // Notifications are delivered asynchronously: give stray ones time to arrive.
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        thread.quit();
+        assertEquals("Error: the weather uri should be notified once per batch",
+                1, weatherObserver.mChanges.get());
+        assertEquals("Error: the location uri should be notified once per batch",
+                1, locationObserver.mChanges.get());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertTrue("Error: a batch insert should keep the ids of existing rows",
+                    Arrays.equals(firstIds, queryWeatherIds()));
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC}, null, null, null);
+        while (cursor.moveToNext()) {
+            assertEquals("Meteors", cursor.getString(0));
+        }
+        cursor.close();
+    }
+
+    /*
+        An operation that fails rolls the whole batch back.
+     */
+    public void testApplyBatchRollsBack() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues incomplete = TestUtilities.createWeatherValues(locationRowId);
+        incomplete.remove(WeatherEntry.COLUMN_SHORT_DESC);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(TestUtilities.createWeatherValues(locationRowId)).build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(incomplete).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: a batch with a row missing a column was applied");
+        } catch (SQLException expected) {
+            // The first insert must not have been kept.
+        }
+        assertEquals(0, queryWeatherIds().length);
+    }
+
+    private long[] queryPageDates(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] dates = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            dates[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return dates;
+    }
+
+    /*
+        Offset and keyset pages of a location's days return the same days, and the last page
+        holds what is left.
+     */
+    public void testPagedQueries() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        Uri allDays = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        long[] dates = queryPageDates(allDays);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, dates.length);
+
+        long[] first = queryPageDates(WeatherEntry.buildPage(allDays, 4, 0));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(dates, 0, 4), first));
+
+        long[] second = queryPageDates(WeatherEntry.buildPage(allDays, 4, 4));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(dates, 4, 8), second));
+        assertTrue("Error: the keyset page differs from the offset page", Arrays.equals(second,
+                queryPageDates(WeatherEntry.buildWeatherLocationPageAfter(
+                        TestUtilities.TEST_LOCATION, first[3], 4))));
+
+        long[] last = queryPageDates(WeatherEntry.buildWeatherLocationPageAfter(
+                TestUtilities.TEST_LOCATION, second[3], 4));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(dates, 8, 10), last));
+
+        // The snapshot answers pages the same way.
+        Cursor cursor = ForecastSnapshotCache.query(mContext.getContentResolver(),
+                WeatherEntry.buildPage(allDays, 4, 4), new String[]{WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(4, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(second[i], cursor.getLong(0));
+        }
+        cursor.close();
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String[] PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    public void testHitsAndMisses() {
+        QueryCache cache = new QueryCache(2);
+        assertNull(cache.get(1, PROJECTION, DATE_ASC));
+        cache.put(1, PROJECTION, DATE_ASC, "SELECT 1");
+        assertEquals("SELECT 1", cache.get(1, PROJECTION, DATE_ASC));
+        // An equal projection in another array is the same query.
+        assertEquals("SELECT 1", cache.get(1, PROJECTION.clone(), DATE_ASC));
+        assertNull("Error: another route got the same SQL", cache.get(2, PROJECTION, DATE_ASC));
+        assertNull("Error: another sort order got the same SQL", cache.get(1, PROJECTION, null));
+        assertNull("Error: no projection got the same SQL", cache.get(1, null, DATE_ASC));
+        assertEquals(2, cache.hitCount());
+        assertEquals(4, cache.missCount());
+    }
+
+    public void testKeyKeepsItsOwnProjection() {
+        QueryCache cache = new QueryCache(2);
+        String[] projection = PROJECTION.clone();
+        cache.put(1, projection, null, "SELECT 1");
+        projection[0] = WeatherEntry.COLUMN_SHORT_DESC;
+        assertNull(cache.get(1, projection, null));
+        assertEquals("SELECT 1", cache.get(1, PROJECTION, null));
+    }
+
+    public void testLeastRecentlyUsedEvicted() {
+        QueryCache cache = new QueryCache(2);
+        cache.put(1, PROJECTION, null, "SELECT 1");
+        cache.put(2, PROJECTION, null, "SELECT 2");
+        cache.get(1, PROJECTION, null);
+        cache.put(3, PROJECTION, null, "SELECT 3");
+        assertNull(cache.get(2, PROJECTION, null));
+        assertEquals("SELECT 1", cache.get(1, PROJECTION, null));
+    }
+
+    /*
+        The provider's cached SQL is the same as what it built before, and only the first query
+        of a route builds it.
+     */
+    public void testProviderCachesLocationRoutes() {
+        WeatherProvider.sQueryCache.evictAll();
+        int misses = WeatherProvider.sQueryCache.missCount();
+        int hits = WeatherProvider.sQueryCache.hitCount();
+
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        WeatherProvider.QuerySpec first =
+                WeatherProvider.buildQuery(uri, PROJECTION, null, null, DATE_ASC);
+        WeatherProvider.QuerySpec second =
+                WeatherProvider.buildQuery(uri, PROJECTION, null, null, DATE_ASC);
+
+        String expected = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherEntry.TABLE_NAME + " INNER JOIN location ON weather.location_id = location._id",
+                PROJECTION,
+                "location.location_setting = ? AND date >= ? ",
+                null, null, DATE_ASC, null);
+        assertEquals(expected, first.sql);
+        assertSame(first.sql, second.sql);
+        assertEquals(misses + 1, WeatherProvider.sQueryCache.missCount());
+        assertEquals(hits + 1, WeatherProvider.sQueryCache.hitCount());
+
+        // The same route without a start date is a different query.
+        WeatherProvider.QuerySpec noStartDate = WeatherProvider.buildQuery(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                PROJECTION, null, null, DATE_ASC);
+        assertFalse(noStartDate.sql.equals(first.sql));
+        assertEquals(1, noStartDate.selectionArgs.length);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL WeatherProvider builds for each of its routes, with the
+    selections and sort orders the app really uses, and fails when SQLite would read a whole
+    table or sort the rows itself.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private List<String> explain(Uri uri, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+        WeatherProvider.QuerySpec query =
+                WeatherProvider.buildQuery(uri, null, selection, selectionArgs, sortOrder);
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.selectionArgs);
+        List<String> plan = new ArrayList<String>();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    /*
+        Newer SQLite says "SCAN TABLE weather" or "SCAN weather", the one on Gingerbread just
+        "TABLE weather" when it doesn't use an index.
+     */
+    static boolean isFullScan(String detail) {
+        String step = detail.trim();
+        if (step.startsWith("SCAN ")) {
+            return true;
+        }
+        return step.startsWith("TABLE ") && !step.contains(" WITH INDEX")
+                && !step.contains("PRIMARY KEY");
+    }
+
+    private void assertIndexed(String route, Uri uri, String selection, String[] selectionArgs,
+                               String sortOrder) {
+        List<String> plan = explain(uri, selection, selectionArgs, sortOrder);
+        assertFalse("Error: no query plan for " + route, plan.isEmpty());
+        for (String step : plan) {
+            assertFalse("Error: " + route + " reads a whole table: " + plan, isFullScan(step));
+            assertFalse("Error: " + route + " sorts in a temporary b-tree: " + plan,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+
+    public void testIndexCreated() {
+        Cursor cursor = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX});
+        assertTrue("Error: the weather location/date index is missing", cursor.moveToFirst());
+        cursor.close();
+    }
+
+    /*
+        The forecast list, the list widget and Muzei: a location's days from today, by date.
+     */
+    public void testWeatherWithLocationAndStartDate() {
+        assertIndexed("weather/*?date=",
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                null, null, DATE_ASC);
+        assertIndexed("weather/*",
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, DATE_ASC);
+    }
+
+    /*
+        The pages of the forecast list: a keyset page only reads the days it returns.
+     */
+    public void testWeatherPages() {
+        assertIndexed("weather/*?date=&limit=",
+                WeatherEntry.buildWeatherLocationPageAfter(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, 14),
+                null, null, DATE_ASC);
+        assertIndexed("weather/*?limit=&offset=",
+                WeatherEntry.buildPage(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                        14, 14),
+                null, null, DATE_ASC);
+    }
+
+    /*
+        The detail screen, today widget and the notification: one day of a location.
+     */
+    public void testWeatherWithLocationAndDate() {
+        assertIndexed("weather/*/#",
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                null, null, null);
+    }
+
+    /*
+        The sync comparing a new forecast with the stored days of its location.
+     */
+    public void testWeatherByLocationId() {
+        assertIndexed("weather",
+                WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)},
+                null);
+    }
+
+    /*
+        The sync looking its location up.  A batch sync reads every other location on purpose,
+        so that query isn't checked.
+     */
+    public void testLocationBySetting() {
+        assertIndexed("location",
+                LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION},
+                null);
+    }
+}
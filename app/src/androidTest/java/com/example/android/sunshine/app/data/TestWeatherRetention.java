@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherRetention extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "retention-test.db";
+
+    private SQLiteDatabase mDb;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext, DATABASE_NAME, WeatherDbHelper.Tuning.DEFAULT)
+                .getWritableDatabase();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertLocation(String setting, int historyDays) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_HISTORY_DAYS, historyDays);
+        long locationId = mDb.insert(LocationEntry.TABLE_NAME, null, values);
+        assertTrue(locationId != -1);
+        return locationId;
+    }
+
+    // Inserts a day for every date from first to last days from today, with the days from today
+    // as the temperatures.
+    private void insertDays(long locationId, int first, int last) {
+        mDb.beginTransaction();
+        try {
+            for (int day = first; day <= last; day++) {
+                ContentValues values = TestUtilities.createWeatherValues(locationId);
+                values.put(WeatherEntry.COLUMN_DATE, WeatherRetention.daysBefore(mToday, -day));
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, day);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, day + 10);
+                assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private long countDays(long locationId, String condition, long date) {
+        return DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + condition,
+                new String[]{Long.toString(locationId), Long.toString(date)});
+    }
+
+    private long historyDayCount(long locationId) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT TOTAL(" + HistoryEntry.COLUMN_DAY_COUNT
+                        + ") FROM " + HistoryEntry.TABLE_NAME + " WHERE "
+                        + HistoryEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)});
+    }
+
+    public void testWeekOf() {
+        for (int day = 0; day < 14; day++) {
+            long date = WeatherRetention.daysBefore(mToday, day);
+            long week = WeatherRetention.weekOf(date);
+            Time time = new Time();
+            time.set(week);
+            assertEquals("Error: week doesn't start on a Monday", Time.MONDAY, time.weekDay);
+            assertTrue(week <= date);
+            assertTrue(WeatherRetention.daysBefore(date, 6) <= week);
+            assertEquals(week, WeatherRetention.weekOf(week));
+        }
+    }
+
+    /*
+        Each location keeps its own history depth, and the days it loses end up in the history
+        table.
+     */
+    public void testKeepsHistoryDepthPerLocation() {
+        long noHistory = insertLocation("99705", 0);
+        long weekOfHistory = insertLocation("94043", 7);
+        insertDays(noHistory, -20, 3);
+        insertDays(weekOfHistory, -20, 3);
+
+        assertEquals(20 + 13, WeatherRetention.deleteExpired(mDb, mToday));
+
+        assertEquals(0, countDays(noHistory, " < ?", mToday));
+        assertEquals(4, countDays(noHistory, " >= ?", mToday));
+        assertEquals(0, countDays(weekOfHistory, " < ?", WeatherRetention.daysBefore(mToday, 7)));
+        assertEquals(7 + 4,
+                countDays(weekOfHistory, " >= ?", WeatherRetention.daysBefore(mToday, 7)));
+
+        assertEquals(20, historyDayCount(noHistory));
+        assertEquals(13, historyDayCount(weekOfHistory));
+        // Lows and highs are the extremes of the days of each week.
+        Cursor cursor = mDb.rawQuery("SELECT MIN(" + HistoryEntry.COLUMN_MIN_TEMP + "), MAX("
+                + HistoryEntry.COLUMN_MAX_TEMP + ") FROM " + HistoryEntry.TABLE_NAME + " WHERE "
+                + HistoryEntry.COLUMN_LOC_KEY + " = " + noHistory, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(-20.0, cursor.getDouble(0));
+        assertEquals(9.0, cursor.getDouble(1));
+        cursor.close();
+
+        // Nothing more to do until a day goes by.
+        assertEquals(0, WeatherRetention.deleteExpired(mDb, mToday));
+    }
+
+    /*
+        Days of a week deleted by different compactions add up in the same history row.
+     */
+    public void testMergesWeeksAcrossCompactions() {
+        long locationId = insertLocation("99705", 0);
+        insertDays(locationId, -30, 0);
+
+        for (int day = 30; day >= 0; day -= 3) {
+            WeatherRetention.deleteExpired(mDb, WeatherRetention.daysBefore(mToday, day));
+        }
+        assertEquals(30, historyDayCount(locationId));
+        Cursor cursor = mDb.query(HistoryEntry.TABLE_NAME, null,
+                HistoryEntry.COLUMN_LOC_KEY + " = " + locationId, null, null, null, null);
+        while (cursor.moveToNext()) {
+            assertTrue(cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAY_COUNT)) <= 7);
+        }
+        cursor.close();
+    }
+
+    public void testDeletesInChunks() {
+        long locationId = insertLocation("99705", 0);
+        int days = WeatherRetention.DELETE_CHUNK * 2 + 1;
+        insertDays(locationId, -days, 0);
+
+        assertEquals(days, WeatherRetention.deleteExpired(mDb, mToday));
+        assertEquals(days, historyDayCount(locationId));
+        assertEquals(1, countDays(locationId, " >= ?", mToday));
+    }
+
+    /*
+        A database from before incremental auto-vacuum gets it turned on by its first vacuum, and
+        deleted days give their pages back afterwards.
+     */
+    public void testVacuum() {
+        mDb.execSQL("PRAGMA auto_vacuum = NONE");
+        mDb.execSQL("VACUUM");
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null));
+
+        long locationId = insertLocation("99705", 0);
+        insertDays(locationId, -1000, 0);
+        WeatherRetention.vacuum(mDb);
+        assertEquals(2, DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null));
+
+        WeatherRetention.deleteExpired(mDb, mToday);
+        assertTrue(DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null) > 0);
+        assertTrue("Error: no pages freed", WeatherRetention.vacuum(mDb) > 0);
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null));
+    }
+}
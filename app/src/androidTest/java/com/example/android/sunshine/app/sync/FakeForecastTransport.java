@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/*
+    ForecastTransport that hands out queued canned responses instead of going to the network,
+    and remembers what was asked of it.
+ */
+public class FakeForecastTransport implements ForecastTransport {
+    final List<String> mUrls = new ArrayList<String>();
+    final List<Map<String, String>> mRequestHeaders = new ArrayList<Map<String, String>>();
+    private final LinkedList<FakeResponse> mResponses = new LinkedList<FakeResponse>();
+    int mOpenResponses;
+
+    FakeForecastTransport enqueue(int responseCode, String body, String etag) {
+        FakeResponse response = new FakeResponse(responseCode, body);
+        if (etag != null) {
+            response.mHeaders.put("ETag", etag);
+        }
+        mResponses.add(response);
+        return this;
+    }
+
+    @Override
+    public synchronized Response get(String url, Map<String, String> requestHeaders)
+            throws IOException {
+        mUrls.add(url);
+        mRequestHeaders.add(new HashMap<String, String>(requestHeaders));
+        if (mResponses.isEmpty()) {
+            throw new IOException("No response queued for " + url);
+        }
+        mOpenResponses++;
+        return mResponses.removeFirst();
+    }
+
+    private class FakeResponse implements Response {
+        final int mResponseCode;
+        final String mBody;
+        final Map<String, String> mHeaders = new HashMap<String, String>();
+
+        FakeResponse(int responseCode, String body) {
+            mResponseCode = responseCode;
+            mBody = body;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // Like HttpURLConnection.
+                throw new FileNotFoundException("HTTP " + mResponseCode);
+            }
+            return getBody();
+        }
+
+        @Override
+        public InputStream getErrorStream() throws IOException {
+            if (mResponseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+                return null;
+            }
+            return getBody();
+        }
+
+        private InputStream getBody() throws IOException {
+            if (mBody == null) {
+                return null;
+            }
+            return new ByteArrayInputStream(mBody.getBytes("UTF-8"));
+        }
+
+        @Override
+        public void close() {
+            synchronized (FakeForecastTransport.this) {
+                mOpenResponses--;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    A tiny benchmark runner for the sync path: warms an operation up, then times every run on its
+    own so latency percentiles can be reported along with throughput and allocations.  Results are
+    logged under SyncBenchmark, one line per benchmark, so runs are easy to diff.
+ */
+public class SyncBenchmark {
+    static final String LOG_TAG = SyncBenchmark.class.getSimpleName();
+
+    /*
+        The operation to measure.  setUp() runs before every timed run and isn't measured.
+     */
+    static abstract class Op {
+        void setUp() throws Exception {
+        }
+
+        abstract void run() throws Exception;
+    }
+
+    static class Result {
+        final String name;
+        final int runs;
+        final long totalNanos;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long maxNanos;
+        final long allocsPerRun;
+        final long bytesPerRun;
+
+        Result(String name, long[] sortedNanos, long totalNanos, long allocs, long bytes) {
+            this.name = name;
+            this.runs = sortedNanos.length;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = percentile(sortedNanos, 50);
+            this.p99Nanos = percentile(sortedNanos, 99);
+            this.maxNanos = sortedNanos[sortedNanos.length - 1];
+            this.allocsPerRun = allocs / runs;
+            this.bytesPerRun = bytes / runs;
+        }
+
+        double getRunsPerSecond() {
+            return runs * 1e9 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %.1f ops/s, p50 %dus, p99 %dus, max %dus, %d objects, %d bytes per op",
+                    name, getRunsPerSecond(), p50Nanos / 1000, p99Nanos / 1000, maxNanos / 1000,
+                    allocsPerRun, bytesPerRun);
+        }
+    }
+
+    static long percentile(long[] sortedNanos, int percentile) {
+        int index = (int) Math.ceil(sortedNanos.length * percentile / 100.0) - 1;
+        return sortedNanos[Math.max(0, index)];
+    }
+
+    static Result run(String name, int warmupRuns, int runs, Op op) throws Exception {
+        for (int i = 0; i < warmupRuns; i++) {
+            op.setUp();
+            op.run();
+        }
+
+        long[] nanos = new long[runs];
+        long totalNanos = 0;
+        long allocs = 0;
+        long bytes = 0;
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < runs; i++) {
+                op.setUp();
+                Debug.resetThreadAllocCount();
+                Debug.resetThreadAllocSize();
+                long start = System.nanoTime();
+                op.run();
+                nanos[i] = System.nanoTime() - start;
+                allocs += Debug.getThreadAllocCount();
+                bytes += Debug.getThreadAllocSize();
+                totalNanos += nanos[i];
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        Arrays.sort(nanos);
+
+        Result result = new Result(name, nanos, totalNanos, allocs, bytes);
+        Log.i(LOG_TAG, result.toString());
+        return result;
+    }
+}
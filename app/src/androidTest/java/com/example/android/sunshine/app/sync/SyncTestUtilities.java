@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/*
+    Canned OpenWeatherMap responses for the sync tests.  The payloads have the same shape, field
+    order and number formatting as what forecast/daily?mode=json returns, so parse timings are
+    representative of a real sync.
+ */
+public class SyncTestUtilities {
+    static final String TEST_CITY_NAME = "Mountain View";
+    static final double TEST_CITY_LAT = 37.3861;
+    static final double TEST_CITY_LON = -122.0839;
+
+    static final String NOT_FOUND_JSON = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 501, 211, 600, 741};
+    private static final String[] WEATHER_MAINS =
+            {"Clear", "Clouds", "Clouds", "Rain", "Rain", "Thunderstorm", "Snow", "Fog"};
+
+    /*
+        Builds a daily forecast response with the given number of days.  Different seeds give
+        different (but reproducible) weather.
+     */
+    static String createForecastJson(int numDays, int seed) {
+        StringBuilder json = new StringBuilder(600 + numDays * 330);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(TEST_CITY_NAME)
+                .append("\",\"coord\":{\"lon\":").append(TEST_CITY_LON)
+                .append(",\"lat\":").append(TEST_CITY_LAT)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        long dt = 1419069600L;
+        for (int i = 0; i < numDays; i++, dt += 86400) {
+            int condition = (seed + i) % WEATHER_IDS.length;
+            double day = 12.5 + ((seed * 7 + i * 3) % 11);
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f," +
+                            "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"%s\"," +
+                            "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    dt, day, day - 6.25, day + 3.5, day - 4, day - 1, day - 5,
+                    1013.25 - i, 60 + (seed + i) % 40,
+                    WEATHER_IDS[condition], WEATHER_MAINS[condition],
+                    WEATHER_MAINS[condition].toLowerCase(Locale.US),
+                    2.5 + (i % 5), (seed * 31 + i * 45) % 360, (i * 13) % 100));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
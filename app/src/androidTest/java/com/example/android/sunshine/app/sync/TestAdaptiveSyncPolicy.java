@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestAdaptiveSyncPolicy extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    /*
+        Replays a trace against a policy starting from the first decision's state, and checks
+        that the policy makes the same decisions again.
+     */
+    static void assertReplays(List<AdaptiveSyncPolicy.Decision> trace) {
+        assertFalse("Error: empty trace", trace.isEmpty());
+        AdaptiveSyncPolicy.Decision first = trace.get(0);
+        AdaptiveSyncPolicy policy =
+                new AdaptiveSyncPolicy(first.intervalBefore, first.changedStreakBefore);
+        for (AdaptiveSyncPolicy.Decision recorded : trace) {
+            AdaptiveSyncPolicy.Decision replayed =
+                    policy.onEvent(recorded.event, recorded.timeMillis);
+            assertEquals("Error: replay diverged at " + recorded,
+                    recorded.toString(), replayed.toString());
+        }
+    }
+
+    /*
+        A quiet day: the interval stretches, but never past the maximum.
+     */
+    public void testUnchangedStretchesInterval() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(AdaptiveSyncPolicy.DEFAULT_INTERVAL, 0);
+        int previous = policy.getInterval();
+        for (int i = 0; i < 24; i++) {
+            policy.onEvent(AdaptiveSyncPolicy.EVENT_UNCHANGED, i * HOUR_IN_MILLIS);
+            assertTrue(policy.getInterval() >= previous);
+            assertTrue(policy.getInterval() <= AdaptiveSyncPolicy.MAX_INTERVAL);
+            previous = policy.getInterval();
+        }
+        assertEquals(AdaptiveSyncPolicy.MAX_INTERVAL, policy.getInterval());
+    }
+
+    /*
+        One change after a quiet stretch goes back to the default, changes in a row go faster,
+        and an alert goes straight to the minimum.
+     */
+    public void testChangesShortenInterval() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(AdaptiveSyncPolicy.MAX_INTERVAL, 0);
+        policy.onEvent(AdaptiveSyncPolicy.EVENT_CHANGED, 0);
+        assertEquals(AdaptiveSyncPolicy.DEFAULT_INTERVAL, policy.getInterval());
+        policy.onEvent(AdaptiveSyncPolicy.EVENT_CHANGED, HOUR_IN_MILLIS);
+        assertEquals(AdaptiveSyncPolicy.DEFAULT_INTERVAL / 2, policy.getInterval());
+        for (int i = 0; i < 10; i++) {
+            policy.onEvent(AdaptiveSyncPolicy.EVENT_CHANGED, (i + 2) * HOUR_IN_MILLIS);
+        }
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL, policy.getInterval());
+
+        policy = new AdaptiveSyncPolicy(AdaptiveSyncPolicy.MAX_INTERVAL, 0);
+        policy.onEvent(AdaptiveSyncPolicy.EVENT_ALERT, 0);
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL, policy.getInterval());
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL / 2, AdaptiveSyncPolicy.getFlexTime(AdaptiveSyncPolicy.MIN_INTERVAL));
+    }
+
+    /*
+        A day of recorded decisions: a quiet night, a front moving in, an alert, then calm again.
+     */
+    public void testReplayTrace() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(AdaptiveSyncPolicy.DEFAULT_INTERVAL, 0);
+        String[] events = {AdaptiveSyncPolicy.EVENT_UNCHANGED, AdaptiveSyncPolicy.EVENT_UNCHANGED, AdaptiveSyncPolicy.EVENT_UNCHANGED, AdaptiveSyncPolicy.EVENT_CHANGED,
+                AdaptiveSyncPolicy.EVENT_CHANGED, AdaptiveSyncPolicy.EVENT_ALERT, AdaptiveSyncPolicy.EVENT_CHANGED, AdaptiveSyncPolicy.EVENT_UNCHANGED, AdaptiveSyncPolicy.EVENT_UNCHANGED};
+        StringBuilder trace = new StringBuilder();
+        for (int i = 0; i < events.length; i++) {
+            trace.append(policy.onEvent(events[i], i * HOUR_IN_MILLIS)).append('\n');
+        }
+
+        ArrayList<AdaptiveSyncPolicy.Decision> decisions =
+                new ArrayList<AdaptiveSyncPolicy.Decision>();
+        for (String line : trace.toString().split("\n")) {
+            decisions.add(AdaptiveSyncPolicy.Decision.fromString(line));
+        }
+        assertEquals(events.length, decisions.size());
+        assertReplays(decisions);
+        // A trace cut in the middle of a run of changes must replay too.
+        assertReplays(decisions.subList(4, decisions.size()));
+    }
+
+    /*
+        What the scheduler records must replay against the policy.
+     */
+    public void testSchedulerRecordsDecisions() {
+        SyncScheduler.reset(mContext);
+        SyncScheduler.onEvent(mContext, AdaptiveSyncPolicy.EVENT_UNCHANGED);
+        SyncScheduler.onEvent(mContext, AdaptiveSyncPolicy.EVENT_CHANGED);
+        SyncScheduler.onEvent(mContext, AdaptiveSyncPolicy.EVENT_CHANGED);
+        SyncScheduler.onEvent(mContext, AdaptiveSyncPolicy.EVENT_ALERT);
+
+        List<AdaptiveSyncPolicy.Decision> decisions = SyncScheduler.getDecisions(mContext);
+        assertEquals(4, decisions.size());
+        assertEquals(AdaptiveSyncPolicy.EVENT_ALERT, decisions.get(3).event);
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL, SyncScheduler.getInterval(mContext));
+        assertReplays(decisions);
+
+        SyncScheduler.reset(mContext);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CircuitBreaker.reset(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CircuitBreaker.reset(mContext);
+        super.tearDown();
+    }
+
+    /*
+        Backoffs double with every failure, stay within their jitter range and never pass the cap.
+     */
+    public void testBackoff() {
+        Random random = new Random(42);
+        for (int failures = 1; failures <= 40; failures++) {
+            long full = Math.min(CircuitBreaker.MAX_BACKOFF_MILLIS,
+                    failures > 30 ? Long.MAX_VALUE
+                            : CircuitBreaker.BASE_BACKOFF_MILLIS << (failures - 1));
+            for (int i = 0; i < 50; i++) {
+                long backoff = CircuitBreaker.getBackoffMillis(failures, random);
+                assertTrue("Error: backoff " + backoff + " too short after " + failures
+                        + " failures", backoff >= full / 2);
+                assertTrue("Error: backoff " + backoff + " too long after " + failures
+                        + " failures", backoff <= full);
+            }
+        }
+    }
+
+    public void testOpenAndClose() {
+        long now = System.currentTimeMillis();
+        assertEquals(0, CircuitBreaker.getRemainingMillis(mContext, now));
+
+        long backoff = CircuitBreaker.onFailure(mContext, now);
+        assertEquals(backoff, CircuitBreaker.getRemainingMillis(mContext, now));
+        assertEquals(0, CircuitBreaker.getRemainingMillis(mContext, now + backoff));
+
+        // A second failure in a row backs off longer.
+        long second = CircuitBreaker.onFailure(mContext, now);
+        assertEquals(2, CircuitBreaker.getFailures(mContext));
+        assertTrue(second >= CircuitBreaker.BASE_BACKOFF_MILLIS);
+
+        CircuitBreaker.onSuccess(mContext);
+        assertEquals(0, CircuitBreaker.getFailures(mContext));
+        assertEquals(0, CircuitBreaker.getRemainingMillis(mContext, now));
+    }
+
+    /*
+        A clock set back by more than any backoff must not keep the circuit open for ever.
+     */
+    public void testClockSetBack() {
+        long now = System.currentTimeMillis();
+        CircuitBreaker.onFailure(mContext, now);
+        assertEquals(0, CircuitBreaker.getRemainingMillis(mContext,
+                now - 2 * CircuitBreaker.MAX_BACKOFF_MILLIS));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastTable;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class TestForecastResponse extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastResponse.class.getSimpleName();
+
+    private static final int BENCHMARK_WARMUP_RUNS = 20;
+    private static final int BENCHMARK_RUNS = 200;
+
+    /*
+        The streaming parser must produce exactly the rows the JSONObject parser does.
+     */
+    public void testStreamingMatchesJsonObject() throws Exception {
+        for (int numDays : new int[]{1, 14, 16}) {
+            String json = SyncTestUtilities.createForecastJson(numDays, numDays);
+            ForecastResponse tree = ForecastResponse.parse(json);
+            ForecastResponse stream = ForecastResponse.parse(new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+            assertEquals(ForecastResponse.STATUS_OK, stream.getStatus());
+            assertEquals(SyncTestUtilities.TEST_CITY_NAME, stream.getCityName());
+            assertEquals(tree.getCityName(), stream.getCityName());
+            assertEquals(tree.getCityLatitude(), stream.getCityLatitude());
+            assertEquals(tree.getCityLongitude(), stream.getCityLongitude());
+
+            ForecastTable treeDays = tree.getDays();
+            ForecastTable streamDays = stream.getDays();
+            assertEquals("Error: wrong number of days for a " + numDays + " day forecast",
+                    numDays, streamDays.size());
+            for (int i = 0; i < numDays; i++) {
+                assertEquals("Error: day " + i + " of a " + numDays + " day forecast differs",
+                        treeDays.toContentValues(i), streamDays.toContentValues(i));
+            }
+        }
+    }
+
+    public void testErrorCode() throws Exception {
+        String json = SyncTestUtilities.NOT_FOUND_JSON;
+        assertEquals(ForecastResponse.STATUS_LOCATION_NOT_FOUND,
+                ForecastResponse.parse(json).getStatus());
+        assertEquals(ForecastResponse.STATUS_LOCATION_NOT_FOUND,
+                ForecastResponse.parse(new ByteArrayInputStream(json.getBytes("UTF-8"))).getStatus());
+    }
+
+    public void testTruncatedResponse() throws Exception {
+        String json = SyncTestUtilities.createForecastJson(14, 0);
+        byte[] truncated = json.substring(0, json.length() / 2).getBytes("UTF-8");
+        try {
+            ForecastResponse.parse(new ByteArrayInputStream(truncated));
+            fail("Error: a truncated response was parsed");
+        } catch (IOException | JSONException expected) {
+            // A cut-off stream is reported, not silently stored as a shorter forecast.
+        }
+    }
+
+    /*
+        Not a pass/fail test: compares parse time and allocations of both parsers on the 14 and
+        16 day payloads.  Results are in logcat under TestForecastResponse.
+     */
+    public void testParseBenchmark() throws Exception {
+        for (int numDays : new int[]{14, 16}) {
+            String json = SyncTestUtilities.createForecastJson(numDays, 3);
+            byte[] bytes = json.getBytes("UTF-8");
+
+            for (int i = 0; i < BENCHMARK_WARMUP_RUNS; i++) {
+                // The JSONObject path also has to build the String from the stream first.
+                ForecastResponse.parse(new String(bytes, "UTF-8"));
+                ForecastResponse.parse(new ByteArrayInputStream(bytes));
+            }
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                ForecastResponse.parse(new String(bytes, "UTF-8"));
+            }
+            long treeNanos = System.nanoTime() - start;
+            int treeAllocs = Debug.getThreadAllocCount();
+            int treeBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                ForecastResponse.parse(new ByteArrayInputStream(bytes));
+            }
+            long streamNanos = System.nanoTime() - start;
+            int streamAllocs = Debug.getThreadAllocCount();
+            int streamBytes = Debug.getThreadAllocSize();
+            Debug.stopAllocCounting();
+
+            Log.i(LOG_TAG, numDays + " days, JSONObject: "
+                    + (treeNanos / BENCHMARK_RUNS / 1000) + "us, "
+                    + (treeAllocs / BENCHMARK_RUNS) + " objects, "
+                    + (treeBytes / BENCHMARK_RUNS) + " bytes per parse");
+            Log.i(LOG_TAG, numDays + " days, JsonReader: "
+                    + (streamNanos / BENCHMARK_RUNS / 1000) + "us, "
+                    + (streamAllocs / BENCHMARK_RUNS) + " objects, "
+                    + (streamBytes / BENCHMARK_RUNS) + " bytes per parse");
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestPostSyncPipeline extends AndroidTestCase {
+
+    private static final long WAIT_SECONDS = 5;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncStats.reset(mContext);
+    }
+
+    /*
+        Consumers must run at the same time: each of these only finishes once the other started.
+     */
+    public void testConsumersRunConcurrently() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch finished = new CountDownLatch(2);
+        Runnable consumer = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    if (started.await(WAIT_SECONDS, TimeUnit.SECONDS)) {
+                        finished.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    // timed out, leave finished alone
+                }
+            }
+        };
+
+        long start = SystemClock.elapsedRealtime();
+        new PostSyncPipeline(mContext)
+                .add("first", WAIT_SECONDS * 2000, consumer)
+                .add("second", WAIT_SECONDS * 2000, consumer)
+                .start();
+        assertTrue("Error: start() should not wait for its consumers",
+                SystemClock.elapsedRealtime() - start < 1000);
+
+        assertTrue("Error: consumers didn't run concurrently",
+                finished.await(WAIT_SECONDS * 2, TimeUnit.SECONDS));
+    }
+
+    /*
+        A consumer that overruns its timeout is interrupted without holding up the others, and
+        both outcomes end up in the stats.
+     */
+    public void testSlowConsumerTimesOut() throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+
+        new PostSyncPipeline(mContext)
+                .add("slow", 200, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(WAIT_SECONDS * 1000);
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                        }
+                    }
+                })
+                .add("fast", 1000, new Runnable() {
+                    @Override
+                    public void run() {
+                        fastDone.countDown();
+                    }
+                })
+                .start();
+
+        assertTrue(fastDone.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("Error: slow consumer wasn't interrupted",
+                interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // The stats are written right after the consumers return or are interrupted.
+        long deadline = SystemClock.elapsedRealtime() + WAIT_SECONDS * 1000;
+        while ((SyncStats.get(mContext, PostSyncPipeline.statKey("fast", "runs")) == 0
+                || SyncStats.get(mContext, PostSyncPipeline.statKey("slow", "timeouts")) == 0)
+                && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, SyncStats.get(mContext, PostSyncPipeline.statKey("fast", "runs")));
+        assertEquals(1, SyncStats.get(mContext, PostSyncPipeline.statKey("slow", "timeouts")));
+    }
+
+    /*
+        A consumer waiting for a pool thread must get its whole timeout once it runs: here it is
+        queued behind a full pool for longer than the time it needs, but well within its timeout
+        once it starts.
+     */
+    public void testTimeoutStartsWhenConsumerRuns() throws InterruptedException {
+        final CountDownLatch queuedDone = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(500);
+            }
+        };
+
+        PostSyncPipeline pipeline = new PostSyncPipeline(mContext);
+        for (int i = 0; i < PostSyncPipeline.POOL_SIZE; i++) {
+            pipeline.add("blocker", 2000, blocker);
+        }
+        pipeline.add("queued", 800, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                    queuedDone.countDown();
+                } catch (InterruptedException e) {
+                    // timed out, leave queuedDone alone
+                }
+            }
+        }).start();
+
+        assertTrue("Error: the time spent queued counted against the consumer's timeout",
+                queuedDone.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, SyncStats.get(mContext, PostSyncPipeline.statKey("queued", "timeouts")));
+    }
+}
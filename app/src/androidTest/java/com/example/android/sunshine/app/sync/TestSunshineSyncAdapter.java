@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs the sync adapter against canned responses, so these tests need no network.
+ */
+public class TestSunshineSyncAdapter extends AndroidTestCase {
+
+    private static final int NUM_DAYS = 14;
+
+    private SunshineSyncAdapter mSyncAdapter;
+    private FakeForecastTransport mTransport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        SyncStats.reset(mContext);
+        CircuitBreaker.reset(mContext);
+
+        mTransport = new FakeForecastTransport();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setTransport(mTransport);
+        mSyncAdapter.setNetworkAvailable(true);
+    }
+
+    /*
+        The sync manager takes delayUntil as seconds since the epoch, so it must not come before
+        the breaker's backoff is over.
+     */
+    private void assertDelayedUntilBackoffEnds(SyncResult syncResult) {
+        long now = System.currentTimeMillis();
+        long backoffEnds = now + CircuitBreaker.getRemainingMillis(mContext, now);
+        assertTrue("Error: the sync manager should be told to wait until the backoff is over",
+                syncResult.delayUntil * 1000 >= backoffEnds);
+        assertTrue("Error: delayUntil should be an absolute time",
+                syncResult.delayUntil > now / 1000);
+    }
+
+    private void performSync() {
+        mSyncAdapter.onPerformSync(null, new Bundle(), null, null, new SyncResult());
+    }
+
+    private void performManualSync() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        mSyncAdapter.onPerformSync(null, extras, null, null, new SyncResult());
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /*
+        A second sync must send back the validator it was given, and a 304 must leave the stored
+        forecast alone.  Every response handed out must be closed so its connection can be reused.
+     */
+    public void testConditionalRequest() {
+        mTransport.enqueue(HttpURLConnection.HTTP_OK,
+                SyncTestUtilities.createForecastJson(NUM_DAYS, 1), "\"v1\"")
+                .enqueue(HttpURLConnection.HTTP_NOT_MODIFIED, null, "\"v1\"");
+
+        performSync();
+        assertEquals(NUM_DAYS, countWeatherRows());
+        assertNull("Error: the first request has nothing to validate",
+                mTransport.mRequestHeaders.get(0).get("If-None-Match"));
+
+        performSync();
+        assertEquals("\"v1\"", mTransport.mRequestHeaders.get(1).get("If-None-Match"));
+        assertEquals(NUM_DAYS, countWeatherRows());
+        assertEquals(1, SyncStats.get(mContext, SyncStats.FORECAST_NOT_MODIFIED));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+
+        assertEquals("Error: responses were left open", 0, mTransport.mOpenResponses);
+    }
+
+    /*
+        Downloading the same forecast again must not write anything.
+     */
+    public void testUnchangedForecast() {
+        String json = SyncTestUtilities.createForecastJson(NUM_DAYS, 2);
+        mTransport.enqueue(HttpURLConnection.HTTP_OK, json, null)
+                .enqueue(HttpURLConnection.HTTP_OK, json, null);
+
+        performSync();
+        assertEquals(NUM_DAYS, SyncStats.get(mContext, SyncStats.FORECAST_DAYS_WRITTEN));
+
+        performSync();
+        assertEquals(1, SyncStats.get(mContext, SyncStats.FORECAST_UNCHANGED));
+        assertEquals(NUM_DAYS, SyncStats.get(mContext, SyncStats.FORECAST_DAYS_WRITTEN));
+        assertEquals(0, mTransport.mOpenResponses);
+    }
+
+    /*
+        An unchanged forecast with the same validators leaves the location row alone, and only a
+        new ETag is written when the server changes it.
+     */
+    public void testUnchangedForecastWritesOnlyNewValidators() {
+        String json = SyncTestUtilities.createForecastJson(NUM_DAYS, 2);
+        mTransport.enqueue(HttpURLConnection.HTTP_OK, json, "\"v1\"")
+                .enqueue(HttpURLConnection.HTTP_OK, json, "\"v1\"")
+                .enqueue(HttpURLConnection.HTTP_OK, json, "\"v2\"");
+        performSync();
+
+        final AtomicInteger locationChanges = new AtomicInteger();
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                locationChanges.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true,
+                observer);
+        try {
+            performSync();
+            /* Notifications are delivered asynchronously, so give a stray one time to arrive. */
+            SystemClock.sleep(500);
+            assertEquals(0, locationChanges.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+
+        performSync();
+        assertEquals(2, SyncStats.get(mContext, SyncStats.FORECAST_UNCHANGED));
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_ETAG}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("\"v2\"", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        A periodic sync refreshes every stored location, a manual one only the preferred location.
+     */
+    public void testBatchSync() {
+        ContentValues otherLocation = new ContentValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        otherLocation.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        otherLocation.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        otherLocation.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+
+        mTransport.enqueue(HttpURLConnection.HTTP_OK,
+                SyncTestUtilities.createForecastJson(NUM_DAYS, 3), null)
+                .enqueue(HttpURLConnection.HTTP_OK,
+                        SyncTestUtilities.createForecastJson(NUM_DAYS, 3), null);
+        performSync();
+
+        assertEquals("Error: both locations should have been requested",
+                2, mTransport.mUrls.size());
+        boolean queriedByCoordinates = false;
+        for (String url : mTransport.mUrls) {
+            queriedByCoordinates |= url.contains("lat=64.7488");
+        }
+        assertTrue("Error: stored locations should be queried by coordinates",
+                queriedByCoordinates);
+        assertEquals(2 * NUM_DAYS, countWeatherRows());
+        assertEquals(0, mTransport.mOpenResponses);
+
+        mTransport.enqueue(HttpURLConnection.HTTP_NOT_MODIFIED, null, null);
+        performManualSync();
+        assertEquals("Error: a manual sync should only request the preferred location",
+                3, mTransport.mUrls.size());
+    }
+
+    /*
+        A server error must back off the sync manager and keep periodic syncs off the network until
+        the backoff is over, while a sync the user asked for still goes out.
+     */
+    public void testServerDownBacksOff() {
+        mTransport.enqueue(HttpURLConnection.HTTP_UNAVAILABLE, "", null);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), null, null, syncResult);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertEquals(1, CircuitBreaker.getFailures(mContext));
+        assertDelayedUntilBackoffEnds(syncResult);
+
+        syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), null, null, syncResult);
+        assertEquals("Error: no request should be sent while backing off",
+                1, mTransport.mUrls.size());
+        assertDelayedUntilBackoffEnds(syncResult);
+        assertEquals(1, SyncStats.get(mContext, SyncStats.SYNC_SHORT_CIRCUITED));
+
+        // The user asking for the weather goes through anyway, and its success closes the circuit.
+        mTransport.enqueue(HttpURLConnection.HTTP_OK,
+                SyncTestUtilities.createForecastJson(NUM_DAYS, 4), null);
+        performManualSync();
+        assertEquals(2, mTransport.mUrls.size());
+        assertEquals(0, CircuitBreaker.getFailures(mContext));
+
+        // Once the backoff is over, periodic syncs go out again.
+        CircuitBreaker.onFailure(mContext,
+                System.currentTimeMillis() - CircuitBreaker.MAX_BACKOFF_MILLIS);
+        mTransport.enqueue(HttpURLConnection.HTTP_OK,
+                SyncTestUtilities.createForecastJson(NUM_DAYS, 5), null);
+        performSync();
+        assertEquals(3, mTransport.mUrls.size());
+        assertEquals(0, CircuitBreaker.getFailures(mContext));
+        assertEquals(0, mTransport.mOpenResponses);
+    }
+
+    /*
+        A 404 means the location is unknown, not that the server is down: the user is told so,
+        and the circuit stays closed for the corrected location.
+     */
+    public void testUnknownLocationDoesNotOpenCircuit() {
+        mTransport.enqueue(HttpURLConnection.HTTP_NOT_FOUND,
+                "{\"cod\":\"404\",\"message\":\"city not found\"}", null);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), null, null, syncResult);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext));
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals(0, CircuitBreaker.getFailures(mContext));
+        assertEquals(0, CircuitBreaker.getRemainingMillis(mContext, System.currentTimeMillis()));
+        assertEquals(0, mTransport.mOpenResponses);
+    }
+
+    /*
+        Any other client error, e.g. a rejected API key, is a hard error: retrying can't fix it, so
+        neither the sync manager nor the circuit breaker should try again.
+     */
+    public void testClientErrorIsNotRetried() {
+        mTransport.enqueue(HttpURLConnection.HTTP_UNAUTHORIZED,
+                "{\"cod\":401,\"message\":\"Invalid API key\"}", null);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), null, null, syncResult);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                Utility.getLocationStatus(mContext));
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals(1, syncResult.stats.numParseExceptions);
+        assertEquals(0, CircuitBreaker.getFailures(mContext));
+        assertEquals(0, syncResult.delayUntil);
+    }
+
+    /*
+        Failing to connect while offline says nothing about the server, so it must not open the
+        circuit and hold off the sync that runs once the device is back online.
+     */
+    public void testOfflineDoesNotOpenCircuit() {
+        mSyncAdapter.setNetworkAvailable(false);
+        mTransport.enqueue(HttpURLConnection.HTTP_UNAVAILABLE, "", null);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), null, null, syncResult);
+
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertEquals(0, CircuitBreaker.getFailures(mContext));
+        assertEquals(0, syncResult.delayUntil);
+        assertEquals(0, CircuitBreaker.getRemainingMillis(mContext, System.currentTimeMillis()));
+    }
+}
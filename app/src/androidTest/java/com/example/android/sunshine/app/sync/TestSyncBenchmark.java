@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.ForecastSnapshotCache;
+import com.example.android.sunshine.app.data.ForecastTable;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+
+import java.io.ByteArrayInputStream;
+
+/*
+    Benchmarks of each stage of the sync path on recorded-shape payloads: parse, date
+    normalization, building the rows of many locations, and storing them.  Not pass/fail tests
+    beyond sanity checks; compare the SyncBenchmark lines in logcat before and after a change.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+
+    private static final int[] DAY_COUNTS = {1, 7, 14, 16};
+    private static final int[] LOCATION_COUNTS = {1, 10, 50, 200};
+    private static final int FORECAST_DAYS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static byte[][] createPayloads(int count, int numDays) throws Exception {
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            payloads[i] = SyncTestUtilities.createForecastJson(numDays, i).getBytes("UTF-8");
+        }
+        return payloads;
+    }
+
+    private long[] insertLocations(int count) {
+        long[] locationIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues location = new ContentValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "bench-" + i);
+            location.put(LocationEntry.COLUMN_CITY_NAME, SyncTestUtilities.TEST_CITY_NAME);
+            location.put(LocationEntry.COLUMN_COORD_LAT, SyncTestUtilities.TEST_CITY_LAT);
+            location.put(LocationEntry.COLUMN_COORD_LONG, SyncTestUtilities.TEST_CITY_LON);
+            Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+            locationIds[i] = Long.parseLong(uri.getLastPathSegment());
+        }
+        return locationIds;
+    }
+
+    /*
+        What storeForecasts does before touching the database: parse each location's payload,
+        digest it and key its days to the location.
+     */
+    private static ForecastTable buildRows(byte[][] payloads, long[] locationIds)
+            throws Exception {
+        ForecastTable rows = new ForecastTable(payloads.length * FORECAST_DAYS);
+        for (int i = 0; i < payloads.length; i++) {
+            ForecastTable days =
+                    ForecastResponse.parse(new ByteArrayInputStream(payloads[i])).getDays();
+            ForecastDigest.digest(days);
+            for (int day = 0; day < days.size(); day++) {
+                rows.add(days, day, locationIds[i]);
+            }
+        }
+        return rows;
+    }
+
+    public void testParse() throws Exception {
+        for (int numDays : DAY_COUNTS) {
+            final byte[] payload = createPayloads(1, numDays)[0];
+            SyncBenchmark.Result result = SyncBenchmark.run("parse " + numDays + " days",
+                    20, 200, new SyncBenchmark.Op() {
+                        @Override
+                        void run() throws Exception {
+                            ForecastResponse.parse(new ByteArrayInputStream(payload));
+                        }
+                    });
+            assertTrue(result.getRunsPerSecond() > 0);
+        }
+    }
+
+    public void testNormalizeDate() throws Exception {
+        final long start = System.currentTimeMillis();
+        SyncBenchmark.run("normalizeDate x16", 100, 1000, new SyncBenchmark.Op() {
+            @Override
+            void run() {
+                for (int day = 0; day < 16; day++) {
+                    WeatherContract.normalizeDate(start + day * 86400000L);
+                }
+            }
+        });
+    }
+
+    /*
+        Building the rows as a ForecastTable, and as the ContentValues the sync used to build and
+        still builds before Honeycomb.  Compare the objects per op.
+     */
+    public void testBuildRows() throws Exception {
+        for (int numLocations : LOCATION_COUNTS) {
+            final byte[][] payloads = createPayloads(numLocations, FORECAST_DAYS);
+            final long[] locationIds = new long[numLocations];
+            SyncBenchmark.run("build rows " + numLocations + " locations",
+                    3, Math.max(5, 200 / numLocations), new SyncBenchmark.Op() {
+                        @Override
+                        void run() throws Exception {
+                            assertEquals(payloads.length * FORECAST_DAYS,
+                                    buildRows(payloads, locationIds).size());
+                        }
+                    });
+            SyncBenchmark.run("build ContentValues rows " + numLocations + " locations",
+                    3, Math.max(5, 200 / numLocations), new SyncBenchmark.Op() {
+                        @Override
+                        void run() throws Exception {
+                            assertEquals(payloads.length * FORECAST_DAYS,
+                                    buildRows(payloads, locationIds).toContentValues().length);
+                        }
+                    });
+        }
+    }
+
+    /*
+        Reading a location's days the way a widget binds them: from a provider cursor, and from
+        the forecast snapshot.
+     */
+    public void testReadDays() throws Exception {
+        final long[] locationIds = insertLocations(1);
+        store(buildRows(createPayloads(1, FORECAST_DAYS), locationIds));
+        final String location = "bench-0";
+        final String[] columns = {
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP
+        };
+        SyncBenchmark.run("read days from cursor", 20, 200, new SyncBenchmark.Op() {
+            @Override
+            void run() throws Exception {
+                Cursor cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocation(location), columns, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+                double sum = 0;
+                while (cursor.moveToNext()) {
+                    sum += cursor.getLong(0) + cursor.getInt(1) + cursor.getString(2).length()
+                            + cursor.getDouble(3) + cursor.getDouble(4);
+                }
+                cursor.close();
+                assertTrue(sum > 0);
+            }
+        });
+        SyncBenchmark.run("read days from snapshot", 20, 200, new SyncBenchmark.Op() {
+            @Override
+            void run() throws Exception {
+                ForecastSnapshot forecast =
+                        ForecastSnapshotCache.get(mContext.getContentResolver(), location);
+                double sum = 0;
+                for (int day = 0; day < forecast.getDayCount(); day++) {
+                    sum += forecast.getDate(day) + forecast.getWeatherId(day)
+                            + forecast.getShortDesc(day).length() + forecast.getMaxTemp(day)
+                            + forecast.getMinTemp(day);
+                }
+                assertTrue(sum > 0);
+            }
+        });
+    }
+
+    /*
+        What WeatherProvider.bulkInsert did before it upserted: normalize each row's date in
+        place and insert it, letting ON CONFLICT REPLACE delete the row it collides with.
+     */
+    private static int insertLoop(SQLiteDatabase db, ContentValues[] rows) {
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                row.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(row.getAsLong(WeatherEntry.COLUMN_DATE)));
+                if (db.insert(WeatherEntry.TABLE_NAME, null, row) != -1) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    /*
+        Storing every location's rows at once, as a batch sync does, into an empty table and over
+        the rows of the previous sync: the old insert loop, a bulkInsert of ContentValues, and the
+        provider's store of a ForecastTable.
+     */
+    public void testStoreRows() throws Exception {
+        final SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            for (int numLocations : LOCATION_COUNTS) {
+                deleteAll();
+                final byte[][] payloads = createPayloads(numLocations, FORECAST_DAYS);
+                final long[] locationIds = insertLocations(numLocations);
+                for (final boolean replace : new boolean[]{false, true}) {
+                    final ForecastTable[] rows = new ForecastTable[1];
+                    SyncBenchmark.Op setUp = new SyncBenchmark.Op() {
+                        @Override
+                        void run() throws Exception {
+                            mContext.getContentResolver().delete(
+                                    WeatherEntry.CONTENT_URI, null, null);
+                            if (replace) {
+                                store(buildRows(payloads, locationIds));
+                            }
+                            rows[0] = buildRows(payloads, locationIds);
+                        }
+                    };
+                    String name = numLocations + " locations" + (replace ? ", replacing" : "");
+                    SyncBenchmark.run("insert loop " + name, 1, 5,
+                            new StoreOp(setUp) {
+                                @Override
+                                void run() {
+                                    ContentValues[] values = rows[0].toContentValues();
+                                    assertEquals(values.length, insertLoop(db, values));
+                                }
+                            });
+                    SyncBenchmark.run("bulkInsert " + name, 1, 5,
+                            new StoreOp(setUp) {
+                                @Override
+                                void run() {
+                                    ContentValues[] values = rows[0].toContentValues();
+                                    assertEquals(values.length, mContext.getContentResolver()
+                                            .bulkInsert(WeatherEntry.CONTENT_URI, values));
+                                }
+                            });
+                    SyncBenchmark.run("store table " + name, 1, 5,
+                            new StoreOp(setUp) {
+                                @Override
+                                void run() {
+                                    assertEquals(rows[0].size(), store(rows[0]));
+                                }
+                            });
+                }
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private int store(ForecastTable rows) {
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_STORE_FORECAST, null, rows.toBundle());
+        return result.getInt(WeatherContract.EXTRA_ROWS);
+    }
+
+    private static abstract class StoreOp extends SyncBenchmark.Op {
+        private final SyncBenchmark.Op mSetUp;
+
+        StoreOp(SyncBenchmark.Op setUp) {
+            mSetUp = setUp;
+        }
+
+        @Override
+        void setUp() throws Exception {
+            mSetUp.run();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+
+    private static final String KEY = "94043|metric";
+    private static final String OTHER_KEY = "99705|metric";
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private SyncRequestCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncStats.reset(mContext);
+        mRequests.set(0);
+        mCoalescer = new SyncRequestCoalescer(mContext, new Handler(Looper.getMainLooper()),
+                new SyncRequestCoalescer.Requester() {
+                    @Override
+                    public void requestSync() {
+                        mRequests.incrementAndGet();
+                    }
+                });
+    }
+
+    private void waitForWindow() throws InterruptedException {
+        Thread.sleep(SyncRequestCoalescer.WINDOW_MILLIS * 3);
+    }
+
+    /*
+        A burst of requests, even for different settings, asks for a single sync.
+     */
+    public void testBurstMerges() throws InterruptedException {
+        mCoalescer.request(KEY);
+        mCoalescer.request(KEY);
+        mCoalescer.request(OTHER_KEY);
+        mCoalescer.request(KEY);
+        waitForWindow();
+
+        assertEquals(1, mRequests.get());
+        assertEquals(3, SyncStats.get(mContext, SyncStats.SYNC_REQUESTS_MERGED));
+    }
+
+    /*
+        While a sync runs, a request for the same settings attaches to it and one for different
+        settings asks for a new sync.
+     */
+    public void testAttachToRunningSync() throws InterruptedException {
+        mCoalescer.request(KEY);
+        waitForWindow();
+        assertEquals(1, mRequests.get());
+
+        mCoalescer.onSyncStarted(KEY);
+        mCoalescer.request(KEY);
+        waitForWindow();
+        assertEquals("Error: request should have attached to the running sync",
+                1, mRequests.get());
+
+        mCoalescer.request(OTHER_KEY);
+        waitForWindow();
+        assertEquals(2, mRequests.get());
+        mCoalescer.onSyncFinished();
+
+        // Nothing requested or running any more: the next request goes through.
+        mCoalescer.onSyncStarted(OTHER_KEY);
+        mCoalescer.onSyncFinished();
+        mCoalescer.request(KEY);
+        waitForWindow();
+        assertEquals(3, mRequests.get());
+        assertEquals(1, SyncStats.get(mContext, SyncStats.SYNC_REQUESTS_MERGED));
+    }
+}
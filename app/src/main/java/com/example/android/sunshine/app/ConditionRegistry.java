@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * What the app shows for each OpenWeatherMap condition code: the list icon, the artwork, the
+ * description and the Muzei image, held in dense tables indexed by code and built once from
+ * {@link ConditionTable}.  A lookup is an array read in place of the range checks the Utility
+ * helpers used to walk on every call.
+ * <p>
+ * Art pack urls are formatted once per kind and kept until the art pack setting changes.
+ * It may be used from any thread.
+ */
+public final class ConditionRegistry {
+
+    // these indices must match the ConditionTable kinds
+    private static final int[] KIND_ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+    private static final int[] KIND_ART = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+    private static final String[] KIND_IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+    // Tornadoes are drawn as storms, but Muzei shows them raising dust.
+    private static final int TORNADO = 781;
+    private static final String TORNADO_IMAGE_URL =
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+
+    // Descriptions of single codes, as code and string id pairs.  Ranges are filled in below.
+    private static final int[] CODE_STRINGS = {
+            500, R.string.condition_500,
+            501, R.string.condition_501,
+            502, R.string.condition_502,
+            503, R.string.condition_503,
+            504, R.string.condition_504,
+            511, R.string.condition_511,
+            520, R.string.condition_520,
+            531, R.string.condition_531,
+            600, R.string.condition_600,
+            601, R.string.condition_601,
+            602, R.string.condition_602,
+            611, R.string.condition_611,
+            612, R.string.condition_612,
+            615, R.string.condition_615,
+            616, R.string.condition_616,
+            620, R.string.condition_620,
+            621, R.string.condition_621,
+            622, R.string.condition_622,
+            701, R.string.condition_701,
+            711, R.string.condition_711,
+            721, R.string.condition_721,
+            731, R.string.condition_731,
+            741, R.string.condition_741,
+            751, R.string.condition_751,
+            761, R.string.condition_761,
+            762, R.string.condition_762,
+            771, R.string.condition_771,
+            781, R.string.condition_781,
+            800, R.string.condition_800,
+            801, R.string.condition_801,
+            802, R.string.condition_802,
+            803, R.string.condition_803,
+            804, R.string.condition_804,
+            900, R.string.condition_900,
+            901, R.string.condition_901,
+            902, R.string.condition_902,
+            903, R.string.condition_903,
+            904, R.string.condition_904,
+            905, R.string.condition_905,
+            906, R.string.condition_906,
+            951, R.string.condition_951,
+            952, R.string.condition_952,
+            953, R.string.condition_953,
+            954, R.string.condition_954,
+            955, R.string.condition_955,
+            956, R.string.condition_956,
+            957, R.string.condition_957,
+            958, R.string.condition_958,
+            959, R.string.condition_959,
+            960, R.string.condition_960,
+            961, R.string.condition_961,
+            962, R.string.condition_962
+    };
+
+    // Indexed by code.  -1, 0 or null where a code has no icon, description or image.
+    private static final int[] ICONS = new int[ConditionTable.CODE_LIMIT];
+    private static final int[] ART = new int[ConditionTable.CODE_LIMIT];
+    private static final int[] STRINGS = new int[ConditionTable.CODE_LIMIT];
+    private static final String[] IMAGE_URLS = new String[ConditionTable.CODE_LIMIT];
+
+    static {
+        ConditionTable.checkKindTable("ConditionRegistry.KIND_ICONS", KIND_ICONS.length);
+        ConditionTable.checkKindTable("ConditionRegistry.KIND_ART", KIND_ART.length);
+        ConditionTable.checkKindTable("ConditionRegistry.KIND_IMAGE_URLS", KIND_IMAGE_URLS.length);
+        for (int code = 0; code < ConditionTable.CODE_LIMIT; code++) {
+            int kind = ConditionTable.getKind(code);
+            if (kind == ConditionTable.KIND_NONE) {
+                ICONS[code] = -1;
+                ART[code] = -1;
+            } else {
+                ICONS[code] = KIND_ICONS[kind];
+                ART[code] = KIND_ART[kind];
+                IMAGE_URLS[code] = KIND_IMAGE_URLS[kind];
+            }
+        }
+        IMAGE_URLS[TORNADO] = TORNADO_IMAGE_URL;
+
+        for (int code = 200; code <= 232; code++) {
+            STRINGS[code] = R.string.condition_2xx;
+        }
+        for (int code = 300; code <= 321; code++) {
+            STRINGS[code] = R.string.condition_3xx;
+        }
+        for (int i = 0; i < CODE_STRINGS.length; i += 2) {
+            STRINGS[CODE_STRINGS[i]] = CODE_STRINGS[i + 1];
+        }
+    }
+
+    // Art urls of the art pack they were formatted for, by kind.  Guarded by the class.
+    private static String sArtPack;
+    private static final String[] sArtUrls = new String[ConditionTable.KIND_COUNT];
+
+    private ConditionRegistry() {
+    }
+
+    private static boolean isCode(int weatherId) {
+        return weatherId >= 0 && weatherId < ConditionTable.CODE_LIMIT;
+    }
+
+    /**
+     * @return resource id of the list icon for a code, or -1 if there is none.
+     */
+    public static int getIconResource(int weatherId) {
+        return isCode(weatherId) ? ICONS[weatherId] : -1;
+    }
+
+    /**
+     * @return resource id of the artwork for a code, or -1 if there is none.
+     */
+    public static int getArtResource(int weatherId) {
+        return isCode(weatherId) ? ART[weatherId] : -1;
+    }
+
+    /**
+     * @return the description of a code, or the unknown condition string naming it.
+     */
+    public static String getString(Context context, int weatherId) {
+        int stringId = isCode(weatherId) ? STRINGS[weatherId] : 0;
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    /**
+     * @return url of the Muzei image for a code, or null if there is none.
+     */
+    public static String getImageUrl(int weatherId) {
+        return isCode(weatherId) ? IMAGE_URLS[weatherId] : null;
+    }
+
+    /**
+     * @return url of the artwork for a code in the selected art pack, or null if there is none.
+     */
+    public static synchronized String getArtUrl(Context context, int weatherId) {
+        int kind = ConditionTable.getKind(weatherId);
+        if (kind == ConditionTable.KIND_NONE) {
+            return null;
+        }
+        String artPack = SettingsSnapshot.get(context).getArtPack();
+        if (!artPack.equals(sArtPack)) {
+            sArtPack = artPack;
+            for (int i = 0; i < sArtUrls.length; i++) {
+                sArtUrls[i] = null;
+            }
+        }
+        String url = sArtUrls[kind];
+        if (url == null) {
+            url = String.format(Locale.US, artPack, ConditionTable.getArtName(kind));
+            sArtUrls[kind] = url;
+        }
+        return url;
+    }
+}
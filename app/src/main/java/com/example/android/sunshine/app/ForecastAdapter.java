@@ -16,7 +16,6 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -30,11 +29,20 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * to a {@link android.support.v7.widget.RecyclerView}.
+ * <p>
+ * The forecast comes in pages of {@link #PAGE_SIZE} days, each its own query, so that however
+ * many days are stored only the pages scrolled to are queried and held.  Every page but the last
+ * is full, which is what maps a position to its page.
+ * <p>
+ * Pages arrive as {@link ForecastPage}s with their rows already formatted.  A reloaded page is
+ * compared with the one it replaces by date, and only the rows added, removed or changed are
+ * notified, so a sync that leaves most days as they were rebinds only the rest.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,7 +52,10 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    // Days per page, i.e. the limit of each page's query.
+    public static final int PAGE_SIZE = 14;
+
+    private final ArrayList<ForecastPage> mPages = new ArrayList<ForecastPage>();
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +84,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(getRowAtPosition(adapterPosition).mDate, this);
             mICM.onClick(this);
         }
     }
@@ -124,27 +133,15 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        // Everything shown was formatted when the page loaded.
+        ForecastPage.Row row = getRowAtPosition(position);
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
-            forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
+        if ( row.mArtUrl == null ) {
+            forecastAdapterViewHolder.mIconView.setImageResource(row.mImageResource);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
-                    .error(defaultImage)
+                    .load(row.mArtUrl)
+                    .error(row.mImageResource)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
@@ -153,34 +150,20 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(row.mDateText);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHigh);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLow);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,18 +191,112 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        int count = 0;
+        for (ForecastPage page : mPages) {
+            count += page.getRowCount();
+        }
+        return count;
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    /**
+     * Sets a page, or adds it after the last one.  A null page is dropped, and so are the pages
+     * after a null one or one that isn't full, which are past the end of the forecast.
+     */
+    public void swapPage(int page, ForecastPage newPage) {
+        if (page > mPages.size()) {
+            // Follows a page that was dropped.
+            return;
+        }
+        if (newPage == null || newPage.getRowCount() < PAGE_SIZE) {
+            dropPagesFrom(page + 1);
+        }
+        ForecastPage oldPage = page < mPages.size() ? mPages.get(page) : null;
+        if (newPage == null) {
+            dropPagesFrom(page);
+        } else {
+            if (oldPage == null) {
+                mPages.add(newPage);
+            } else {
+                mPages.set(page, newPage);
+            }
+            notifyRowChanges(page * PAGE_SIZE, oldPage, newPage);
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    /*
+        Both pages are in date order, so walking them together pairs up the rows of each day.  A
+        day only in the old page was removed, one only in the new page inserted, and one in both
+        changed if it would be bound differently.  Positions are notified in order, each event
+        seeing the list as the ones before it left it.
+     */
+    private void notifyRowChanges(int start, ForecastPage oldPage, ForecastPage newPage) {
+        int newCount = newPage.getRowCount();
+        if (oldPage == null) {
+            notifyItemRangeInserted(start, newCount);
+            return;
+        }
+        int oldCount = oldPage.getRowCount();
+        int position = start;
+        int o = 0;
+        int n = 0;
+        while (o < oldCount || n < newCount) {
+            ForecastPage.Row oldRow = o < oldCount ? oldPage.getRow(o) : null;
+            ForecastPage.Row newRow = n < newCount ? newPage.getRow(n) : null;
+            if (newRow == null || (oldRow != null && oldRow.mDate < newRow.mDate)) {
+                notifyItemRemoved(position);
+                o++;
+            } else if (oldRow == null || newRow.mDate < oldRow.mDate) {
+                notifyItemInserted(position);
+                position++;
+                n++;
+            } else {
+                if (!oldRow.sameContentsAs(newRow)) {
+                    notifyItemChanged(position);
+                }
+                position++;
+                o++;
+                n++;
+            }
+        }
+    }
+
+    private void dropPagesFrom(int page) {
+        if (mPages.size() <= page) {
+            return;
+        }
+        // The pages before are full.
+        int start = page * PAGE_SIZE;
+        int count = getItemCount() - start;
+        while (mPages.size() > page) {
+            mPages.remove(mPages.size() - 1);
+        }
+        notifyItemRangeRemoved(start, count);
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * @return whether there may be days after the loaded pages, i.e. the last page is full.
+     */
+    public boolean hasMorePages() {
+        return !mPages.isEmpty() && mPages.get(mPages.size() - 1).getRowCount() == PAGE_SIZE;
+    }
+
+    /**
+     * @return a page, or null if it isn't loaded.
+     */
+    public ForecastPage getPage(int page) {
+        return page < mPages.size() ? mPages.get(page) : null;
+    }
+
+    /**
+     * @return the formatted row at a position.
+     */
+    public ForecastPage.Row getRowAtPosition(int position) {
+        return mPages.get(position / PAGE_SIZE).getRow(position % PAGE_SIZE);
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
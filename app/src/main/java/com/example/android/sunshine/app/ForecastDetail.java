@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+
+/**
+ * The weather of one day as the detail view shows it, copied out of a cursor queried with
+ * DetailFragment's projection.
+ */
+public final class ForecastDetail {
+    public final long mDate;
+    public final int mWeatherId;
+    public final double mHigh;
+    public final double mLow;
+    public final float mHumidity;
+    public final float mPressure;
+    public final float mWindSpeed;
+    public final float mDegrees;
+
+    /**
+     * Reads the current row of the cursor.
+     */
+    ForecastDetail(Cursor cursor) {
+        mDate = cursor.getLong(DetailFragment.COL_WEATHER_DATE);
+        mWeatherId = cursor.getInt(DetailFragment.COL_WEATHER_CONDITION_ID);
+        mHigh = cursor.getDouble(DetailFragment.COL_WEATHER_MAX_TEMP);
+        mLow = cursor.getDouble(DetailFragment.COL_WEATHER_MIN_TEMP);
+        mHumidity = cursor.getFloat(DetailFragment.COL_WEATHER_HUMIDITY);
+        mPressure = cursor.getFloat(DetailFragment.COL_WEATHER_PRESSURE);
+        mWindSpeed = cursor.getFloat(DetailFragment.COL_WEATHER_WIND_SPEED);
+        mDegrees = cursor.getFloat(DetailFragment.COL_WEATHER_DEGREES);
+    }
+}
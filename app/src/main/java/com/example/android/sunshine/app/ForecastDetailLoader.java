@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Loads the {@link ForecastDetail} of a weather uri for a given date.
+ */
+public class ForecastDetailLoader extends ModelLoader<ForecastDetail> {
+
+    private final String[] mProjection;
+
+    public ForecastDetailLoader(Context context, Uri uri, String[] projection) {
+        super(context, uri);
+        mProjection = projection;
+    }
+
+    @Override
+    protected ForecastDetail loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(
+                getUri(), mProjection, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? new ForecastDetail(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -20,7 +20,6 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -28,7 +27,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -51,7 +49,7 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<ForecastPage>, SharedPreferences.OnSharedPreferenceChangeListener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -59,10 +57,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Whether the list still has to scroll to the selection once the page holding it is loaded.
+    private boolean mSelectionPending;
 
     private static final String SELECTED_KEY = "selected_position";
 
+    // The first page of the forecast.  Page n has loader FORECAST_LOADER + n.
     private static final int FORECAST_LOADER = 0;
+    // Date of the last day before a page, the key its query starts after.
+    private static final String LAST_DATE_KEY = "last_date";
+    // Pages with a loader, loaded or not.
+    private int mPagesRequested;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -199,6 +204,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadNextPageIfNeeded();
+            }
+        });
 
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
@@ -260,24 +271,64 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             getActivity().supportPostponeEnterTransition();
         }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        // The pages loaded before a configuration change kept their loaders.  Reconnect them in
+        // order, so they are delivered to the new adapter page by page.
+        mPagesRequested = 1;
+        while (getLoaderManager().getLoader(FORECAST_LOADER + mPagesRequested) != null) {
+            getLoaderManager().initLoader(FORECAST_LOADER + mPagesRequested, null, this);
+            mPagesRequested++;
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
-    // since we read the location when we create the loader, all we need to do is restart things
+    // since we read the location when we create the loader, all we need to do is restart things.
+    // Loads still running for the old location are canceled.
     void onLocationChanged() {
+        destroyPagesAfter(0);
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
+    // Loads the page after the last one once the list is scrolled to within half a page of its
+    // end.
+    private void loadNextPageIfNeeded() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+        int count = mForecastAdapter.getItemCount();
+        if (layoutManager.findLastVisibleItemPosition() >= count - ForecastAdapter.PAGE_SIZE / 2) {
+            loadNextPage();
+        }
+    }
+
+    // Loads the page after the last one, unless the last page isn't full or the next one is on
+    // its way.
+    private void loadNextPage() {
+        int page = mForecastAdapter.getPageCount();
+        if (page < mPagesRequested || !mForecastAdapter.hasMorePages()) {
+            return;
+        }
+        int count = mForecastAdapter.getItemCount();
+        Bundle args = new Bundle();
+        args.putLong(LAST_DATE_KEY, mForecastAdapter.getRowAtPosition(count - 1).mDate);
+        mPagesRequested = page + 1;
+        getLoaderManager().restartLoader(FORECAST_LOADER + page, args, this);
+    }
+
+    // Drops the pages after a page, whose loaders were keyed to what it held before.
+    private void destroyPagesAfter(int page) {
+        for (int next = page + 1; next < mPagesRequested; next++) {
+            getLoaderManager().destroyLoader(FORECAST_LOADER + next);
+        }
+        mPagesRequested = Math.min(mPagesRequested, page + 1);
+    }
+
     private void openPreferredLocationInMap() {
         // Using the URI scheme for showing a location found on a map.  This super-handy
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+            ForecastPage page = mForecastAdapter.getPage(0);
+            if (null != page && page.getRowCount() > 0) {
+                String posLat = page.getCoordLat();
+                String posLong = page.getCoordLong();
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -302,74 +353,119 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
+    public Loader<ForecastPage> onCreateLoader(int i, Bundle bundle) {
+        // This is called when a new Loader needs to be created.  Each page of the forecast
+        // has its own loader, and the id tells which.
+        int page = i - FORECAST_LOADER;
 
         // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
+        // dates after or including today.  Later pages start after the last day of the page
+        // before them.
 
         // Sort order:  Ascending, by date.
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri;
+        if (page == 0) {
+            weatherForLocationUri = WeatherContract.WeatherEntry.buildPage(
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                            locationSetting, System.currentTimeMillis()),
+                    ForecastAdapter.PAGE_SIZE, 0);
+        } else {
+            weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationPageAfter(
+                    locationSetting, bundle.getLong(LAST_DATE_KEY), ForecastAdapter.PAGE_SIZE);
+        }
 
-        return new CursorLoader(getActivity(),
+        // The rows are formatted on the loader's thread, the first one for the today layout if
+        // it is used.
+        return new ForecastPageLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+                sortOrder,
+                page == 0 && mUseTodayLayout);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
-        updateEmptyView();
-        if ( data.getCount() == 0 ) {
-            getActivity().supportStartPostponedEnterTransition();
-        } else {
-            mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
-                @Override
-                public boolean onPreDraw() {
-                    // Since we know we're going to get items, we keep the listener around until
-                    // we see Children.
-                    if (mRecyclerView.getChildCount() > 0) {
-                        mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
-                        int position = mForecastAdapter.getSelectedItemPosition();
-                        if (position == RecyclerView.NO_POSITION &&
-                                -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
-                        }
-                        if (position == RecyclerView.NO_POSITION) position = 0;
-                        // If we don't need to restart the loader, and there's a desired position to restore
-                        // to, do so now.
-                        mRecyclerView.smoothScrollToPosition(position);
-                        RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
-                        if (null != vh && mAutoSelectView) {
-                            mForecastAdapter.selectView(vh);
-                        }
-                        if ( mHoldForTransition ) {
-                            getActivity().supportStartPostponedEnterTransition();
-                        }
-                        return true;
-                    }
-                    return false;
-                }
-            });
+    public void onLoadFinished(Loader<ForecastPage> loader, ForecastPage data) {
+        int page = loader.getId() - FORECAST_LOADER;
+        int days = data == null ? 0 : data.getRowCount();
+        // The pages after this one start after the last day it had.  If it reloaded ending on
+        // another day, say page 0 after midnight, they would repeat or skip days: drop them, and
+        // scrolling loads them again.
+        ForecastPage oldPage = mForecastAdapter.getPage(page);
+        if (days < ForecastAdapter.PAGE_SIZE
+                || (oldPage != null && getLastDate(oldPage) != getLastDate(data))) {
+            destroyPagesAfter(page);
+        }
+        mForecastAdapter.swapPage(page, data);
+        if (page == 0) {
+            updateEmptyView();
+            if ( days == 0 ) {
+                mSelectionPending = false;
+                getActivity().supportStartPostponedEnterTransition();
+                return;
+            }
+            mSelectionPending = true;
+        }
+        if (mSelectionPending) {
+            scrollToSelection();
         }
+    }
 
+    private static long getLastDate(ForecastPage page) {
+        if (page == null || page.getRowCount() == 0) {
+            return -1;
+        }
+        return page.getRow(page.getRowCount() - 1).mDate;
+    }
+
+    // Scrolls to the selected day, or to the day the fragment was asked to select first.  If
+    // that day is past the loaded pages, the next page is loaded first, until the day turns up
+    // or the forecast ends.
+    private void scrollToSelection() {
+        int position = mForecastAdapter.getSelectedItemPosition();
+        if (position == RecyclerView.NO_POSITION &&
+                -1 != mInitialSelectedDate) {
+            int count = mForecastAdapter.getItemCount();
+            for ( int i = 0; i < count; i++ ) {
+                if ( mForecastAdapter.getRowAtPosition(i).mDate == mInitialSelectedDate ) {
+                    position = i;
+                    break;
+                }
+            }
+            if (position == RecyclerView.NO_POSITION && mForecastAdapter.hasMorePages()
+                    && mInitialSelectedDate > mForecastAdapter.getRowAtPosition(count - 1).mDate) {
+                // Called again when the page is delivered.
+                loadNextPage();
+                return;
+            }
+        }
+        mSelectionPending = false;
+        if (position == RecyclerView.NO_POSITION) position = 0;
+        final int selectedPosition = position;
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                // Since we know we're going to get items, we keep the listener around until
+                // we see Children.
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    // If we don't need to restart the loader, and there's a desired position to restore
+                    // to, do so now.
+                    mRecyclerView.smoothScrollToPosition(selectedPosition);
+                    RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(selectedPosition);
+                    if (null != vh && mAutoSelectView) {
+                        mForecastAdapter.selectView(vh);
+                    }
+                    if ( mHoldForTransition ) {
+                        getActivity().supportStartPostponedEnterTransition();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        });
     }
 
 
@@ -383,15 +479,20 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ForecastPage> loader) {
+        mForecastAdapter.swapPage(loader.getId() - FORECAST_LOADER, null);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
+        boolean changed = mUseTodayLayout != useTodayLayout;
         mUseTodayLayout = useTodayLayout;
         if (mForecastAdapter != null) {
             mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
         }
+        // The first row was formatted for the old layout.
+        if (changed && isAdded() && getLoaderManager().getLoader(FORECAST_LOADER) != null) {
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        }
     }
 
     public void setInitialSelectedDate(long initialSelectedDate) {
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+/**
+ * A page of the forecast list, with its rows already formatted for display.  The page is built
+ * from its cursor on the loader's thread, so binding a row only sets views, and comparing rows
+ * tells the adapter which ones a reload really changed.
+ */
+public class ForecastPage {
+
+    /**
+     * What a forecast list row shows, ready to set on its views.
+     */
+    public static final class Row {
+        public final long mDate;
+        // The art on a today row, the icon on others.  Also shown if the art url fails to load.
+        public final int mImageResource;
+        // Null when the art pack is Sunshine's own drawables.
+        public final String mArtUrl;
+        public final String mDateText;
+        public final String mDescription;
+        public final String mDescriptionA11y;
+        public final String mHigh;
+        public final String mHighA11y;
+        public final String mLow;
+        public final String mLowA11y;
+
+        Row(Context context, Cursor cursor, boolean today) {
+            WeatherFormatter formatter = WeatherFormatter.get(context);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            mImageResource = today
+                    ? Utility.getArtResourceForWeatherCondition(weatherId)
+                    : Utility.getIconResourceForWeatherCondition(weatherId);
+            mArtUrl = Utility.usingLocalGraphics(context)
+                    ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+            mDateText = formatter.getFriendlyDayString(mDate, today);
+            mDescription = Utility.getStringForWeatherCondition(context, weatherId);
+            mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+            mHigh = formatter.formatTemperature(
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            mHighA11y = context.getString(R.string.a11y_high_temp, mHigh);
+            mLow = formatter.formatTemperature(
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+            mLowA11y = context.getString(R.string.a11y_low_temp, mLow);
+        }
+
+        /**
+         * @return whether binding either row would set the same views.  The a11y strings follow
+         * from the others.
+         */
+        public boolean sameContentsAs(Row other) {
+            return mDate == other.mDate
+                    && mImageResource == other.mImageResource
+                    && TextUtils.equals(mArtUrl, other.mArtUrl)
+                    && mDateText.equals(other.mDateText)
+                    && mDescription.equals(other.mDescription)
+                    && mHigh.equals(other.mHigh)
+                    && mLow.equals(other.mLow);
+        }
+    }
+
+    private final Row[] mRows;
+    // Of the location, the same on every row.  Null when the page is empty.
+    private final String mCoordLat;
+    private final String mCoordLong;
+
+    /**
+     * Builds the rows of a cursor queried with ForecastFragment's projection.  Call it off the
+     * main thread.  The cursor isn't kept.
+     *
+     * @param todayFirst whether the first row is shown with the today layout.
+     */
+    public ForecastPage(Context context, Cursor cursor, boolean todayFirst) {
+        mRows = new Row[cursor.getCount()];
+        for (int i = 0; i < mRows.length; i++) {
+            cursor.moveToPosition(i);
+            mRows[i] = new Row(context, cursor, todayFirst && i == 0);
+        }
+        if (cursor.moveToFirst()) {
+            mCoordLat = cursor.getString(ForecastFragment.COL_COORD_LAT);
+            mCoordLong = cursor.getString(ForecastFragment.COL_COORD_LONG);
+        } else {
+            mCoordLat = null;
+            mCoordLong = null;
+        }
+    }
+
+    public int getRowCount() {
+        return mRows.length;
+    }
+
+    public Row getRow(int position) {
+        return mRows[position];
+    }
+
+    public String getCoordLat() {
+        return mCoordLat;
+    }
+
+    public String getCoordLong() {
+        return mCoordLong;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Loads a page of the forecast list as a {@link ForecastPage}, its rows formatted off the main
+ * thread.
+ */
+public class ForecastPageLoader extends ModelLoader<ForecastPage> {
+
+    private final String[] mProjection;
+    private final String mSortOrder;
+    private final boolean mTodayFirst;
+
+    public ForecastPageLoader(Context context, Uri uri, String[] projection, String sortOrder,
+                              boolean todayFirst) {
+        super(context, uri);
+        mProjection = projection;
+        mSortOrder = sortOrder;
+        mTodayFirst = todayFirst;
+    }
+
+    @Override
+    protected ForecastPage loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(
+                getUri(), mProjection, null, null, mSortOrder);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (isLoadCanceled()) {
+                return null;
+            }
+            return new ForecastPage(getContext(), cursor, mTodayFirst);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.content.Loader;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Loader that queries a uri and copies what it needs out of the cursor into an immutable
+ * model, all on a small shared pool of background priority threads.  The cursor is closed before the model is delivered, so
+ * the main thread never reads a column or fills a cursor window.
+ * <p>
+ * The uri is watched like a CursorLoader's cursor, and a change starts a new load.  A load is
+ * canceled when the loader is abandoned or reset, as when a fragment restarts it for a new
+ * location: a canceled load that hasn't started is taken off the pool's queue, and the model of
+ * one that has is dropped.
+ */
+public abstract class ModelLoader<D> extends Loader<D> {
+    private static final String LOG_TAG = ModelLoader.class.getSimpleName();
+
+    // Enough for the forecast list and the detail pane to load side by side.  Further loads,
+    // like the next page of the list, wait their turn.
+    static final int POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                // Like AsyncTask's threads: loads mustn't compete with the UI
+                                // thread for a core while the list scrolls.
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ModelLoader #" + mCount.incrementAndGet());
+                    }
+                });
+        // Don't keep threads around while nothing is shown.
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // The load running on a pool thread, for isLoadCanceled().
+    private static final ThreadLocal<Load> sRunningLoad = new ThreadLocal<Load>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final Uri mUri;
+    private boolean mObserving;
+
+    // Main thread only.
+    private D mData;
+    private Load mLoad;
+
+    public ModelLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    /**
+     * Queries {@link #getUri()} and builds the model, on a pool thread.  The cursor must be
+     * closed before returning.
+     *
+     * @return the model, or null if there is nothing to show.
+     */
+    protected abstract D loadInBackground();
+
+    /**
+     * @return whether the load running on this thread was canceled, so its model will be
+     * dropped.  A load can check it between steps and return early.
+     */
+    protected static boolean isLoadCanceled() {
+        Load load = sRunningLoad.get();
+        return load != null && load.mCanceled;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mData != null) {
+            deliverResult(mData);
+        }
+        if (takeContentChanged() || mData == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onForceLoad() {
+        cancelLoad();
+        mLoad = new Load();
+        sExecutor.execute(mLoad);
+    }
+
+    // A load that finishes while stopped is kept, and delivered when started again.
+
+    @Override
+    protected void onAbandon() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        cancelLoad();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mData = null;
+    }
+
+    /**
+     * Cancels the load in progress, if there is one.
+     */
+    public void cancelLoad() {
+        if (mLoad != null) {
+            mLoad.mCanceled = true;
+            // Takes it off the queue if it hasn't started.  One that has sees mCanceled.
+            sExecutor.remove(mLoad);
+            mLoad = null;
+        }
+    }
+
+    /**
+     * @return the number of loads waiting for a pool thread.
+     */
+    static int getQueuedLoadCount() {
+        return sExecutor.getQueue().size();
+    }
+
+    private void onLoadComplete(Load load, D data) {
+        if (load != mLoad) {
+            // Canceled, or replaced by a newer load.
+            return;
+        }
+        mLoad = null;
+        mData = data;
+        if (isStarted()) {
+            deliverResult(data);
+        }
+    }
+
+    private class Load implements Runnable {
+        volatile boolean mCanceled;
+
+        @Override
+        public void run() {
+            if (mCanceled) {
+                return;
+            }
+            D data = null;
+            sRunningLoad.set(this);
+            try {
+                data = loadInBackground();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Loading " + mUri + " failed", e);
+            } finally {
+                sRunningLoad.remove();
+            }
+            final D result = data;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onLoadComplete(Load.this, result);
+                }
+            });
+        }
+    }
+}
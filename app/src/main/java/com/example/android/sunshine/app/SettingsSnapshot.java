@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * The settings read on hot paths, such as binding a list row, updating a widget or starting a
+ * sync, as an immutable snapshot.  Reading a setting is a field read: the snapshot is rebuilt
+ * only when a preference changes, and {@link #get(Context)} returns the current one.
+ * <p>
+ * Preferences notify their listeners on the main thread, so a preference written from any other
+ * thread shows up here once the main thread has run.  The location status is written through
+ * {@link #setLocationStatus(Context, int)}, which updates the snapshot right away.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+
+    // Set on first use and guarded by the class.  Preferences only hold their listeners weakly,
+    // so the listener is kept here.
+    private static Context sContext;
+    private static SharedPreferences sPrefs;
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    // None of the keys or defaults are translatable, so they are resolved once.
+    private static String sLocationKey;
+    private static String sLocationDefault;
+    private static String sLatitudeKey;
+    private static String sLongitudeKey;
+    private static String sUnitsKey;
+    private static String sMetricUnits;
+    private static String sArtPackKey;
+    private static String sSunshineArtPack;
+    private static String sLocationStatusKey;
+    private static String sNotificationsKey;
+    private static boolean sNotificationsDefault;
+
+    private final String mLocation;
+    private final boolean mLatLonAvailable;
+    private final float mLatitude;
+    private final float mLongitude;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final int mLocationStatus;
+    private final boolean mNotificationsEnabled;
+
+    private SettingsSnapshot(SharedPreferences prefs) {
+        mLocation = prefs.getString(sLocationKey, sLocationDefault);
+        mLatLonAvailable = prefs.contains(sLatitudeKey) && prefs.contains(sLongitudeKey);
+        mLatitude = prefs.getFloat(sLatitudeKey, Utility.DEFAULT_LATLONG);
+        mLongitude = prefs.getFloat(sLongitudeKey, Utility.DEFAULT_LATLONG);
+        mMetric = prefs.getString(sUnitsKey, sMetricUnits).equals(sMetricUnits);
+        mArtPack = prefs.getString(sArtPackKey, sSunshineArtPack);
+        mLocalGraphics = mArtPack.equals(sSunshineArtPack);
+        mLocationStatus = prefs.getInt(sLocationStatusKey,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        mNotificationsEnabled = prefs.getBoolean(sNotificationsKey, sNotificationsDefault);
+    }
+
+    private SettingsSnapshot(SettingsSnapshot from, int locationStatus) {
+        mLocation = from.mLocation;
+        mLatLonAvailable = from.mLatLonAvailable;
+        mLatitude = from.mLatitude;
+        mLongitude = from.mLongitude;
+        mMetric = from.mMetric;
+        mArtPack = from.mArtPack;
+        mLocalGraphics = from.mLocalGraphics;
+        mLocationStatus = locationStatus;
+        mNotificationsEnabled = from.mNotificationsEnabled;
+    }
+
+    /**
+     * @return the current settings.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        if (snapshot == null) {
+            snapshot = reload(context);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rebuilds the snapshot from the preferences without waiting for the change listener, for
+     * callers that wrote a preference off the main thread and read it back straight away.
+     */
+    public static synchronized SettingsSnapshot reload(Context context) {
+        if (sPrefs == null) {
+            sContext = context.getApplicationContext();
+            sPrefs = PreferenceManager.getDefaultSharedPreferences(sContext);
+            sLocationKey = sContext.getString(R.string.pref_location_key);
+            sLocationDefault = sContext.getString(R.string.pref_location_default);
+            sLatitudeKey = sContext.getString(R.string.pref_location_latitude);
+            sLongitudeKey = sContext.getString(R.string.pref_location_longitude);
+            sUnitsKey = sContext.getString(R.string.pref_units_key);
+            sMetricUnits = sContext.getString(R.string.pref_units_metric);
+            sArtPackKey = sContext.getString(R.string.pref_art_pack_key);
+            sSunshineArtPack = sContext.getString(R.string.pref_art_pack_sunshine);
+            sLocationStatusKey = sContext.getString(R.string.pref_location_status_key);
+            sNotificationsKey = sContext.getString(R.string.pref_enable_notifications_key);
+            sNotificationsDefault = Boolean.parseBoolean(
+                    sContext.getString(R.string.pref_enable_notifications_default));
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    reload(sContext);
+                }
+            };
+            sPrefs.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        sCurrent = new SettingsSnapshot(sPrefs);
+        return sCurrent;
+    }
+
+    /**
+     * Stores the location status.  The snapshot has it at once; the preference is written to
+     * disk in the background, together with any other writes queued by then.
+     */
+    public static void setLocationStatus(Context context,
+                                         @SunshineSyncAdapter.LocationStatus int locationStatus) {
+        synchronized (SettingsSnapshot.class) {
+            // Published before the preference is written, so nothing that sees the new
+            // preference can read the old status from the snapshot.  A reload can't come in
+            // between while the class is locked.
+            sCurrent = new SettingsSnapshot(get(context), locationStatus);
+            sPrefs.edit().putInt(sLocationStatusKey, locationStatus).apply();
+        }
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLongitude;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the url format of the selected art pack, taking the art name.
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    @SuppressWarnings("ResourceType")
+    public @SunshineSyncAdapter.LocationStatus int getLocationStatus() {
+        return mLocationStatus;
+    }
+
+    public boolean isNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+}
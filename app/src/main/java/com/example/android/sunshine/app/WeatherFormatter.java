@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Formats temperatures and days for the list, detail, widgets, notification and wearables, with
+ * the output of the Utility helpers it replaces but without their per-call work.  Resource
+ * strings and date formats are looked up once per locale, the units come from the
+ * {@link SettingsSnapshot}, today's julian day is checked once a minute, and the strings returned
+ * are pooled: a temperature by whole degree, a day by julian day.  Once the days on screen have
+ * been formatted, binding a row allocates nothing.
+ * <p>
+ * Get the instance with {@link #get(Context)}.  It may be used from any thread.
+ */
+public final class WeatherFormatter {
+
+    // Whole degrees with a pooled string.  Anything else is formatted on each call.
+    static final int MIN_POOLED_DEGREES = -100;
+    static final int MAX_POOLED_DEGREES = 150;
+
+    // Days with pooled strings before the pools start over.
+    private static final int MAX_POOLED_DAYS = 64;
+
+    // How long today's julian day is trusted before the clock and time zone are read again.
+    private static final long TODAY_CHECK_MILLIS = 60 * 1000;
+
+    private static WeatherFormatter sInstance;
+
+    private final Context mContext;
+
+    // Everything below is guarded by this, and all but the julian days is rebuilt when the
+    // default locale changes.
+    private Locale mLocale;
+    private String mTemperatureFormat;
+    private String[] mTemperatures;
+    private String mNegativeZero;
+    private String mToday;
+    private String mTomorrow;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mShortDateFormat;
+    private SimpleDateFormat mMonthDayFormat;
+
+    // Keyed by julian day.  Friendly days are keyed by twice it, plus one for a long today.
+    private final SparseArray<String> mFriendlyDays = new SparseArray<String>();
+    private final SparseArray<String> mDayNames = new SparseArray<String>();
+    private final SparseArray<String> mMonthDays = new SparseArray<String>();
+
+    private int mTodayJulianDay;
+    private long mGmtOff;
+    private long mTodayCheckedAt;
+
+    public static synchronized WeatherFormatter get(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherFormatter(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Rebuilds the locale dependent state when the default locale changed since the last call.
+     */
+    private void checkLocale() {
+        Locale locale = Locale.getDefault();
+        if (locale == mLocale) {
+            return;
+        }
+        mLocale = locale;
+        mTemperatureFormat = mContext.getString(R.string.format_temperature);
+        mTemperatures = new String[MAX_POOLED_DEGREES - MIN_POOLED_DEGREES + 1];
+        mNegativeZero = String.format(mTemperatureFormat, -0.0);
+        mToday = mContext.getString(R.string.today);
+        mTomorrow = mContext.getString(R.string.tomorrow);
+        mDayNameFormat = new SimpleDateFormat("EEEE");
+        mShortDateFormat = new SimpleDateFormat("EEE MMM dd");
+        mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+        clearDays();
+    }
+
+    private void clearDays() {
+        mFriendlyDays.clear();
+        mDayNames.clear();
+        mMonthDays.clear();
+    }
+
+    private static void pool(SparseArray<String> pool, int key, String value) {
+        if (pool.size() >= MAX_POOLED_DAYS) {
+            pool.clear();
+        }
+        pool.put(key, value);
+    }
+
+    /**
+     * @return today's julian day, read again once it's TODAY_CHECK_MILLIS old.  The pooled days
+     * are dropped when it or the time zone changed, since what they say depends on both.
+     */
+    private int getTodayJulianDay() {
+        long now = System.currentTimeMillis();
+        if (now - mTodayCheckedAt >= TODAY_CHECK_MILLIS || now < mTodayCheckedAt) {
+            // A new Time picks up a changed time zone.
+            Time time = new Time();
+            time.set(now);
+            int today = Time.getJulianDay(now, time.gmtoff);
+            if (today != mTodayJulianDay || time.gmtoff != mGmtOff) {
+                mTodayJulianDay = today;
+                mGmtOff = time.gmtoff;
+                clearDays();
+            }
+            mTodayCheckedAt = now;
+        }
+        return mTodayJulianDay;
+    }
+
+    public boolean isMetric() {
+        return SettingsSnapshot.get(mContext).isMetric();
+    }
+
+    /**
+     * Same as the old Utility.formatTemperature: converted to Fahrenheit unless the units are
+     * metric, rounded half up to whole degrees.
+     *
+     * @param temperature in Celsius, as the database stores it.
+     */
+    public synchronized String formatTemperature(double temperature) {
+        if (!isMetric()) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        if (!(temperature > MIN_POOLED_DEGREES - 1 && temperature < MAX_POOLED_DEGREES + 1)) {
+            // Also NaN
+            return String.format(mTemperatureFormat, temperature);
+        }
+
+        // Round the magnitude half up like the format's %1.0f does.  The fraction is exact.
+        boolean negative = Double.compare(temperature, 0.0) < 0;
+        double magnitude = Math.abs(temperature);
+        int degrees = (int) magnitude;
+        if (magnitude - degrees >= 0.5) {
+            degrees++;
+        }
+        if (degrees == 0 && negative) {
+            return mNegativeZero;
+        }
+        if (negative) {
+            degrees = -degrees;
+        }
+        if (degrees < MIN_POOLED_DEGREES || degrees > MAX_POOLED_DEGREES) {
+            return String.format(mTemperatureFormat, temperature);
+        }
+        String formatted = mTemperatures[degrees - MIN_POOLED_DEGREES];
+        if (formatted == null) {
+            formatted = String.format(mTemperatureFormat, (double) degrees);
+            mTemperatures[degrees - MIN_POOLED_DEGREES] = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * Same as the old Utility.getFriendlyDayString: "Today, June 8" for today when
+     * displayLongToday, the day name for the next week and "Mon Jun 08" after that.
+     */
+    public synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        checkLocale();
+        int today = getTodayJulianDay();
+        int julianDay = Time.getJulianDay(dateInMillis, mGmtOff);
+        boolean longToday = displayLongToday && julianDay == today;
+        if (!longToday && julianDay < today + 7) {
+            return getDayName(julianDay, today, dateInMillis);
+        }
+
+        int key = julianDay * 2 + (longToday ? 1 : 0);
+        String friendlyDay = mFriendlyDays.get(key);
+        if (friendlyDay == null) {
+            if (longToday) {
+                friendlyDay = mContext.getString(R.string.format_full_friendly_date, mToday,
+                        getMonthDay(julianDay, dateInMillis));
+            } else {
+                friendlyDay = mShortDateFormat.format(dateInMillis);
+            }
+            pool(mFriendlyDays, key, friendlyDay);
+        }
+        return friendlyDay;
+    }
+
+    /**
+     * @return "Today", "Tomorrow" or the name of the day of the week.
+     */
+    public synchronized String getDayName(long dateInMillis) {
+        checkLocale();
+        int today = getTodayJulianDay();
+        return getDayName(Time.getJulianDay(dateInMillis, mGmtOff), today, dateInMillis);
+    }
+
+    private String getDayName(int julianDay, int today, long dateInMillis) {
+        if (julianDay == today) {
+            return mToday;
+        } else if (julianDay == today + 1) {
+            return mTomorrow;
+        }
+        String dayName = mDayNames.get(julianDay);
+        if (dayName == null) {
+            dayName = mDayNameFormat.format(dateInMillis);
+            pool(mDayNames, julianDay, dayName);
+        }
+        return dayName;
+    }
+
+    /**
+     * @return the day in the form "December 06".
+     */
+    public synchronized String getFormattedMonthDay(long dateInMillis) {
+        checkLocale();
+        getTodayJulianDay();
+        return getMonthDay(Time.getJulianDay(dateInMillis, mGmtOff), dateInMillis);
+    }
+
+    private String getMonthDay(int julianDay, long dateInMillis) {
+        String monthDay = mMonthDays.get(julianDay);
+        if (monthDay == null) {
+            monthDay = mMonthDayFormat.format(dateInMillis);
+            pool(mMonthDays, julianDay, monthDay);
+        }
+        return monthDay;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * An immutable copy of the stored forecast of one location, every day of it in date order.
+ * <p>
+ * Read it directly, or through {@link #toCursor(String[], int, int)} for code that expects a
+ * cursor from WeatherProvider.  See {@link ForecastSnapshotCache}.
+ */
+public final class ForecastSnapshot {
+
+    // What a snapshot is loaded with: every column of the weather/* routes.
+    static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match COLUMNS
+    private static final int COL_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_WEATHER_ID = 3;
+    private static final int COL_SHORT_DESC = 4;
+    private static final int COL_MIN_TEMP = 5;
+    private static final int COL_MAX_TEMP = 6;
+    private static final int COL_HUMIDITY = 7;
+    private static final int COL_PRESSURE = 8;
+    private static final int COL_WIND_SPEED = 9;
+    private static final int COL_DEGREES = 10;
+    private static final int COL_CITY_NAME = 11;
+    private static final int COL_COORD_LAT = 12;
+    private static final int COL_COORD_LONG = 13;
+    // not loaded, the snapshot knows it
+    private static final int COL_LOCATION_SETTING = 14;
+
+    private final String mLocationSetting;
+    private final long mLocationId;
+    private final String mCityName;
+    private final double mCoordLat;
+    private final double mCoordLong;
+
+    private final long[] mIds;
+    private final ForecastTable mDays;
+
+    /**
+     * @param cursor the location's days, queried with {@link #COLUMNS} sorted by date.
+     */
+    ForecastSnapshot(String locationSetting, Cursor cursor) {
+        int count = cursor.getCount();
+        mLocationSetting = locationSetting;
+        mIds = new long[count];
+        mDays = new ForecastTable(count);
+
+        long locationId = -1;
+        String cityName = null;
+        double coordLat = 0;
+        double coordLong = 0;
+        while (mDays.size() < count && cursor.moveToNext()) {
+            if (mDays.size() == 0) {
+                locationId = cursor.getLong(COL_LOC_KEY);
+                cityName = cursor.getString(COL_CITY_NAME);
+                coordLat = cursor.getDouble(COL_COORD_LAT);
+                coordLong = cursor.getDouble(COL_COORD_LONG);
+            }
+            mIds[mDays.size()] = cursor.getLong(COL_ID);
+            mDays.add(locationId,
+                    cursor.getLong(COL_DATE),
+                    cursor.getInt(COL_WEATHER_ID),
+                    cursor.getString(COL_SHORT_DESC),
+                    cursor.getDouble(COL_MIN_TEMP),
+                    cursor.getDouble(COL_MAX_TEMP),
+                    cursor.getDouble(COL_HUMIDITY),
+                    cursor.getDouble(COL_PRESSURE),
+                    cursor.getDouble(COL_WIND_SPEED),
+                    cursor.getDouble(COL_DEGREES));
+        }
+        mLocationId = locationId;
+        mCityName = cityName;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public int getDayCount() {
+        return mDays.size();
+    }
+
+    /**
+     * @return the weather row id of a day.
+     */
+    public long getId(int day) {
+        return mIds[day];
+    }
+
+    public long getDate(int day) {
+        return mDays.getDate(day);
+    }
+
+    public int getWeatherId(int day) {
+        return mDays.getWeatherId(day);
+    }
+
+    public String getShortDesc(int day) {
+        return mDays.getShortDesc(day);
+    }
+
+    public double getMinTemp(int day) {
+        return mDays.getMinTemp(day);
+    }
+
+    public double getMaxTemp(int day) {
+        return mDays.getMaxTemp(day);
+    }
+
+    /**
+     * @return the first day on or after date, or {@link #getDayCount()} if there is none.
+     */
+    public int firstDayFrom(long date) {
+        int low = 0;
+        int high = mDays.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mDays.getDate(middle) < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the day with exactly this date, or -1.
+     */
+    public int dayOf(long date) {
+        int day = firstDayFrom(date);
+        return day < mDays.size() && mDays.getDate(day) == date ? day : -1;
+    }
+
+    /**
+     * @return days from (inclusive) to (exclusive) as a cursor with the given columns, named as
+     * SQLite would name them, or null if the snapshot doesn't hold one of the columns.
+     */
+    public Cursor toCursor(String[] projection, int from, int to) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] columns = new int[projection.length];
+        String[] names = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = columnOf(projection[i]);
+            if (columns[i] < 0) {
+                return null;
+            }
+            names[i] = projection[i].substring(projection[i].lastIndexOf('.') + 1);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(names, Math.max(0, to - from));
+        for (int day = from; day < to; day++) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = valueOf(columns[i], day);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static int columnOf(String column) {
+        if (column.equals(WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID)
+                || column.equals(WeatherEntry._ID)) {
+            return COL_ID;
+        }
+        if (column.equals(LocationEntry.TABLE_NAME + "." + LocationEntry._ID)) {
+            return COL_LOC_KEY;
+        }
+        String name = column.substring(column.lastIndexOf('.') + 1);
+        if (name.equals(LocationEntry.COLUMN_LOCATION_SETTING)) {
+            return COL_LOCATION_SETTING;
+        }
+        for (int i = COL_LOC_KEY; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object valueOf(int column, int day) {
+        switch (column) {
+            case COL_ID:
+                return mIds[day];
+            case COL_LOC_KEY:
+                return mLocationId;
+            case COL_DATE:
+                return mDays.getDate(day);
+            case COL_WEATHER_ID:
+                return mDays.getWeatherId(day);
+            case COL_SHORT_DESC:
+                return mDays.getShortDesc(day);
+            case COL_MIN_TEMP:
+                return mDays.getMinTemp(day);
+            case COL_MAX_TEMP:
+                return mDays.getMaxTemp(day);
+            case COL_HUMIDITY:
+                return mDays.getHumidity(day);
+            case COL_PRESSURE:
+                return mDays.getPressure(day);
+            case COL_WIND_SPEED:
+                return mDays.getWindSpeed(day);
+            case COL_DEGREES:
+                return mDays.getDegrees(day);
+            case COL_CITY_NAME:
+                return mCityName;
+            case COL_COORD_LAT:
+                return mCoordLat;
+            case COL_COORD_LONG:
+                return mCoordLong;
+            case COL_LOCATION_SETTING:
+                return mLocationSetting;
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+}
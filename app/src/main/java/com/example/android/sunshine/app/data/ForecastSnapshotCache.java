@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latest forecast of the locations the app shows, kept in memory for the process.
+ * <p>
+ * The widgets, Muzei, the notification and the wearables all read today's forecast for the
+ * preferred location within seconds of each sync.  The sync publishes a snapshot once its writes
+ * are committed, and they read it without touching the database.  WeatherProvider drops every
+ * snapshot when it writes weather or location data.  Both run in the app's one process.
+ * <p>
+ * A load that raced a write isn't kept: each write bumps a generation, and a snapshot read
+ * under an older generation is handed to its caller but not cached.
+ */
+public class ForecastSnapshotCache {
+    private static final String LOG_TAG = ForecastSnapshotCache.class.getSimpleName();
+
+    // The preferred location, and one or two others after the user changed it.
+    private static final int MAX_LOCATIONS = 4;
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final UriMatcher sUriMatcher = WeatherProvider.buildUriMatcher();
+
+    private static final Object sLock = new Object();
+    private static final LruCache<String, ForecastSnapshot> sSnapshots =
+            new LruCache<String, ForecastSnapshot>(MAX_LOCATIONS);
+    // guarded by sLock
+    private static long sGeneration;
+
+    private static final AtomicLong sHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+
+    /**
+     * @return the cached snapshot of a location, or null.  Never reads the database.
+     */
+    public static ForecastSnapshot peek(String locationSetting) {
+        ForecastSnapshot snapshot = sSnapshots.get(locationSetting);
+        (snapshot != null ? sHits : sMisses).incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot of a location, read from the provider if it isn't cached, or null if
+     * the provider couldn't be queried.
+     */
+    public static ForecastSnapshot get(ContentResolver resolver, String locationSetting) {
+        ForecastSnapshot snapshot = peek(locationSetting);
+        return snapshot != null ? snapshot : load(resolver, locationSetting);
+    }
+
+    /**
+     * Reads a location's forecast and caches it.  For the sync, once its writes are committed.
+     */
+    public static void publish(ContentResolver resolver, String locationSetting) {
+        load(resolver, locationSetting);
+        log();
+    }
+
+    /**
+     * Answers a query on weather/*, weather/*?date=, either of them paged, or weather/*&#47;# from
+     * the location's snapshot, as a MatrixCursor.  Any other query, or a projection or sort order
+     * the snapshot can't serve, goes to the provider.
+     */
+    public static Cursor query(ContentResolver resolver, Uri uri, String[] projection,
+                               String sortOrder) {
+        int match = sUriMatcher.match(uri);
+        boolean dateOrder = sortOrder == null || DATE_ASC.equals(sortOrder.trim());
+        if (dateOrder && (match == WeatherProvider.WEATHER_WITH_LOCATION
+                || match == WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE)) {
+            ForecastSnapshot snapshot =
+                    get(resolver, WeatherEntry.getLocationSettingFromUri(uri));
+            if (snapshot != null) {
+                int from;
+                int to;
+                if (match == WeatherProvider.WEATHER_WITH_LOCATION) {
+                    from = snapshot.firstDayFrom(WeatherEntry.getStartDateFromUri(uri));
+                    to = snapshot.getDayCount();
+                    int limit = WeatherEntry.getLimitFromUri(uri);
+                    if (limit > 0) {
+                        from = Math.min(to, from + WeatherEntry.getOffsetFromUri(uri));
+                        to = Math.min(to, from + limit);
+                    }
+                } else {
+                    from = snapshot.dayOf(WeatherEntry.getDateFromUri(uri));
+                    to = from < 0 ? from : from + 1;
+                }
+                Cursor cursor = snapshot.toCursor(projection, from, to);
+                if (cursor != null) {
+                    cursor.setNotificationUri(resolver, uri);
+                    return cursor;
+                }
+            }
+        }
+        return resolver.query(uri, projection, null, null, sortOrder);
+    }
+
+    /**
+     * Drops every snapshot.  WeatherProvider calls it after each write.
+     */
+    static void invalidateAll() {
+        synchronized (sLock) {
+            sGeneration++;
+            sSnapshots.evictAll();
+        }
+    }
+
+    private static ForecastSnapshot load(ContentResolver resolver, String locationSetting) {
+        long generation;
+        synchronized (sLock) {
+            generation = sGeneration;
+        }
+        Cursor cursor = resolver.query(WeatherEntry.buildWeatherLocation(locationSetting),
+                ForecastSnapshot.COLUMNS, null, null, DATE_ASC);
+        if (cursor == null) {
+            return null;
+        }
+        ForecastSnapshot snapshot;
+        try {
+            snapshot = new ForecastSnapshot(locationSetting, cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (sLock) {
+            if (generation == sGeneration) {
+                sSnapshots.put(locationSetting, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    public static long getHitCount() {
+        return sHits.get();
+    }
+
+    public static long getMissCount() {
+        return sMisses.get();
+    }
+
+    public static void log() {
+        long hits = sHits.get();
+        long reads = hits + sMisses.get();
+        Log.i(LOG_TAG, "hits = " + hits + ", misses = " + (reads - hits) + ", hit rate = "
+                + (reads == 0 ? 0 : 100 * hits / reads) + "%");
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Days of weather held column by column in primitive arrays, one index per day.
+ * <p>
+ * The sync parses a forecast into one, compares and stores it without a ContentValues per day,
+ * and readers of a {@link ForecastSnapshot} get their values without a cursor.  The location
+ * key of a day is {@link #NO_LOCATION} until the location's row exists.
+ */
+public final class ForecastTable {
+
+    public static final long NO_LOCATION = -1;
+
+    // Keys of the columns in a Bundle, as passed to WeatherContract.METHOD_STORE_FORECAST.
+    private static final String KEY_SIZE = "size";
+
+    private int mSize;
+    private long[] mLocationIds;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastTable(int capacity) {
+        capacity = Math.max(1, capacity);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    private ForecastTable(Bundle columns) {
+        mSize = columns.getInt(KEY_SIZE);
+        mLocationIds = columns.getLongArray(WeatherEntry.COLUMN_LOC_KEY);
+        mDates = columns.getLongArray(WeatherEntry.COLUMN_DATE);
+        mWeatherIds = columns.getIntArray(WeatherEntry.COLUMN_WEATHER_ID);
+        mShortDescs = columns.getStringArray(WeatherEntry.COLUMN_SHORT_DESC);
+        mMinTemps = columns.getDoubleArray(WeatherEntry.COLUMN_MIN_TEMP);
+        mMaxTemps = columns.getDoubleArray(WeatherEntry.COLUMN_MAX_TEMP);
+        mHumidities = columns.getDoubleArray(WeatherEntry.COLUMN_HUMIDITY);
+        mPressures = columns.getDoubleArray(WeatherEntry.COLUMN_PRESSURE);
+        mWindSpeeds = columns.getDoubleArray(WeatherEntry.COLUMN_WIND_SPEED);
+        mDegrees = columns.getDoubleArray(WeatherEntry.COLUMN_DEGREES);
+    }
+
+    /**
+     * @return the table held by a Bundle from {@link #toBundle()}, or null if it holds none.
+     */
+    public static ForecastTable fromBundle(Bundle columns) {
+        if (columns == null || !columns.containsKey(KEY_SIZE)) {
+            return null;
+        }
+        ForecastTable table = new ForecastTable(columns);
+        int size = table.mSize;
+        if (size < 0 || table.mLocationIds == null || table.mLocationIds.length < size
+                || table.mDates == null || table.mDates.length < size
+                || table.mWeatherIds == null || table.mWeatherIds.length < size
+                || table.mShortDescs == null || table.mShortDescs.length < size
+                || table.mMinTemps == null || table.mMinTemps.length < size
+                || table.mMaxTemps == null || table.mMaxTemps.length < size
+                || table.mHumidities == null || table.mHumidities.length < size
+                || table.mPressures == null || table.mPressures.length < size
+                || table.mWindSpeeds == null || table.mWindSpeeds.length < size
+                || table.mDegrees == null || table.mDegrees.length < size) {
+            return null;
+        }
+        return table;
+    }
+
+    /**
+     * @return the columns as primitive arrays.  Within the process the Bundle shares them with
+     * this table rather than copying them.
+     */
+    public Bundle toBundle() {
+        Bundle columns = new Bundle();
+        columns.putInt(KEY_SIZE, mSize);
+        columns.putLongArray(WeatherEntry.COLUMN_LOC_KEY, mLocationIds);
+        columns.putLongArray(WeatherEntry.COLUMN_DATE, mDates);
+        columns.putIntArray(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds);
+        columns.putStringArray(WeatherEntry.COLUMN_SHORT_DESC, mShortDescs);
+        columns.putDoubleArray(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps);
+        columns.putDoubleArray(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps);
+        columns.putDoubleArray(WeatherEntry.COLUMN_HUMIDITY, mHumidities);
+        columns.putDoubleArray(WeatherEntry.COLUMN_PRESSURE, mPressures);
+        columns.putDoubleArray(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds);
+        columns.putDoubleArray(WeatherEntry.COLUMN_DEGREES, mDegrees);
+        return columns;
+    }
+
+    /**
+     * @return the index of the new day.
+     */
+    public int add(long locationId, long date, int weatherId, String shortDesc, double minTemp,
+                   double maxTemp, double humidity, double pressure, double windSpeed,
+                   double degrees) {
+        if (mSize == mDates.length) {
+            grow(mSize * 2);
+        }
+        int day = mSize++;
+        mLocationIds[day] = locationId;
+        mDates[day] = date;
+        mWeatherIds[day] = weatherId;
+        mShortDescs[day] = shortDesc;
+        mMinTemps[day] = minTemp;
+        mMaxTemps[day] = maxTemp;
+        mHumidities[day] = humidity;
+        mPressures[day] = pressure;
+        mWindSpeeds[day] = windSpeed;
+        mDegrees[day] = degrees;
+        return day;
+    }
+
+    /**
+     * Appends a day of another table, keyed to the given location.
+     */
+    public int add(ForecastTable from, int day, long locationId) {
+        return add(locationId, from.mDates[day], from.mWeatherIds[day], from.mShortDescs[day],
+                from.mMinTemps[day], from.mMaxTemps[day], from.mHumidities[day],
+                from.mPressures[day], from.mWindSpeeds[day], from.mDegrees[day]);
+    }
+
+    private void grow(int capacity) {
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getLocationId(int day) {
+        return mLocationIds[day];
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getShortDesc(int day) {
+        return mShortDescs[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    /**
+     * @return a weather row of a day, for the code paths that still store ContentValues, e.g.
+     * the sync before Honeycomb.
+     */
+    public ContentValues toContentValues(int day) {
+        ContentValues values = new ContentValues();
+        if (mLocationIds[day] != NO_LOCATION) {
+            values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationIds[day]);
+        }
+        values.put(WeatherEntry.COLUMN_DATE, mDates[day]);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[day]);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[day]);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[day]);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[day]);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[day]);
+        values.put(WeatherEntry.COLUMN_PRESSURE, mPressures[day]);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[day]);
+        values.put(WeatherEntry.COLUMN_DEGREES, mDegrees[day]);
+        return values;
+    }
+
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = new ContentValues[mSize];
+        for (int day = 0; day < mSize; day++) {
+            rows[day] = toContentValues(day);
+        }
+        return rows;
+    }
+}
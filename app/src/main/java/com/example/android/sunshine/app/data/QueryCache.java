@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * The SQL WeatherProvider built for its location routes, by route, projection and sort order.
+ * <p>
+ * The list, detail screen, widgets, Muzei and the notification query the same few routes with
+ * the same static projections, so the SQL only needs building once.  Handing SQLite the same
+ * string each time also lets the connection reuse the statement it compiled for it.
+ */
+class QueryCache {
+
+    // A handful of screens and widgets, each with a projection or two.
+    static final int MAX_ENTRIES = 32;
+
+    private static final class Key {
+        final int mRoute;
+        final String[] mProjection;
+        final String mSortOrder;
+        final int mHash;
+
+        Key(int route, String[] projection, String sortOrder) {
+            mRoute = route;
+            mProjection = projection;
+            mSortOrder = sortOrder;
+            mHash = 31 * (31 * route + Arrays.hashCode(projection))
+                    + (sortOrder == null ? 0 : sortOrder.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mRoute == other.mRoute
+                    && (mSortOrder == null ? other.mSortOrder == null
+                        : mSortOrder.equals(other.mSortOrder))
+                    && Arrays.equals(mProjection, other.mProjection);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    private final LruCache<Key, String> mCache;
+
+    QueryCache(int maxEntries) {
+        mCache = new LruCache<Key, String>(maxEntries);
+    }
+
+    /**
+     * @param route which query of the provider, e.g. its URI match code.
+     * @return the SQL put for the same route, projection and sort order, or null.
+     */
+    String get(int route, String[] projection, String sortOrder) {
+        return mCache.get(new Key(route, projection, sortOrder));
+    }
+
+    void put(int route, String[] projection, String sortOrder, String sql) {
+        // The key keeps a copy, so a caller reusing its projection array can't change it.
+        mCache.put(new Key(route, projection == null ? null : projection.clone(), sortOrder),
+                sql);
+    }
+
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    void evictAll() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return mCache.toString();
+    }
+}
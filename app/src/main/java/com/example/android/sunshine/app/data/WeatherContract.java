@@ -43,6 +43,28 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+
+    // Provider methods, for ContentResolver.call() on BASE_CONTENT_URI (Honeycomb and later).
+    // Writes the database's write-ahead log back into it.  The result holds the number of pages
+    // written under EXTRA_PAGES.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+    public static final String EXTRA_PAGES = "pages";
+    // Ages out the weather rows older than their location's history depth into the history
+    // table and frees the space they held.  The result holds the number of weather rows deleted
+    // under EXTRA_ROWS and the number of pages freed under EXTRA_PAGES.  EXTRA_RETRY is true
+    // when the space couldn't be freed because the database was busy; call it again later.
+    public static final String METHOD_COMPACT = "compact";
+    public static final String EXTRA_ROWS = "rows";
+    public static final String EXTRA_RETRY = "retry";
+    // Applies the operations under EXTRA_OPERATIONS and then writes the days of a ForecastTable,
+    // passed as its toBundle(), in one transaction, like an applyBatch that inserts the days last.
+    // A day whose location is ForecastTable.NO_LOCATION belongs to the location row inserted by
+    // the operation whose index EXTRA_LOCATION_OPERATIONS holds for it.  The result holds the
+    // number of weather rows written under EXTRA_ROWS.
+    public static final String METHOD_STORE_FORECAST = "store_forecast";
+    public static final String EXTRA_OPERATIONS = "operations";
+    public static final String EXTRA_LOCATION_OPERATIONS = "location_operations";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +103,20 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP validators from the last forecast response for this location, sent back to
+        // openweathermap so that an unchanged forecast is answered with a 304 Not Modified.
+        // Null when the server didn't provide them.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Digest of the weather rows of the last forecast stored for this location, so that a
+        // forecast identical to the stored one can be dropped without touching the weather table.
+        public static final String COLUMN_FORECAST_DIGEST = "forecast_digest";
+
+        // How many days before today to keep the weather rows of this location for.  Older days
+        // only survive as weekly rows of the history table.
+        public static final String COLUMN_HISTORY_DAYS = "history_days";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +180,37 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        // Query parameters that page the rows of a "weather/*" uri, with or without a start date:
+        // at most QUERY_LIMIT rows, after skipping QUERY_OFFSET of them.
+        public static final String QUERY_LIMIT = "limit";
+        public static final String QUERY_OFFSET = "offset";
+
+        /**
+         * @return the uri with its rows limited to a page of limit rows starting at offset.
+         */
+        public static Uri buildPage(Uri uri, int limit, int offset) {
+            Uri.Builder builder = uri.buildUpon()
+                    .appendQueryParameter(QUERY_LIMIT, Integer.toString(limit));
+            if (offset > 0) {
+                builder.appendQueryParameter(QUERY_OFFSET, Integer.toString(offset));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Keyset paging: the days of a location after a date, sorted by date, without the cost of
+         * skipping the days before it like an offset does.
+         *
+         * @param lastDate the date of the last day of the previous page
+         */
+        public static Uri buildWeatherLocationPageAfter(String locationSetting, long lastDate,
+                                                        int limit) {
+            // Not normalized: that would round back to the start of lastDate's day.
+            return buildPage(CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(lastDate + 1)).build(),
+                    limit, 0);
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -157,6 +224,25 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        /**
+         * @return the page size of a paged uri, or 0 when it isn't paged.
+         */
+        public static int getLimitFromUri(Uri uri) {
+            return getIntQueryParameter(uri, QUERY_LIMIT);
+        }
+
+        public static int getOffsetFromUri(Uri uri) {
+            return getIntQueryParameter(uri, QUERY_OFFSET);
+        }
+
+        private static int getIntQueryParameter(Uri uri, String key) {
+            String value = uri.getQueryParameter(key);
+            if (null != value && value.length() > 0)
+                return Integer.parseInt(value);
+            else
+                return 0;
+        }
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -165,4 +251,29 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the history table */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        // One row per location and week of weather rows that were aged out of the weather table.
+        public static final String TABLE_NAME = "weather_history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Normalized date of the Monday the week starts on
+        public static final String COLUMN_WEEK = "week";
+
+        // Lowest min and highest max temperature of the days of the week
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Number of days of the week that were folded into the row
+        public static final String COLUMN_DAY_COUNT = "day_count";
+    }
 }
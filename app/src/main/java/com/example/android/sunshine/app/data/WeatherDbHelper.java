@@ -15,25 +15,209 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Every weather query but deleting old days looks a location up first, then its days in
+    // date order: the forecast list, detail, widgets, Muzei and the sync.  The UNIQUE index has
+    // date first, which is no help for a single location.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    // Weekly summaries of the days the retention compactor deletes, so that past weather stays
+    // queryable without keeping every day in the weather table.
+    private static final String SQL_CREATE_HISTORY_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + HistoryEntry.TABLE_NAME + " (" +
+                    HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                    HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_WEEK + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                    " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                    " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryEntry.COLUMN_WEEK + ") ON CONFLICT REPLACE);";
+
+    /**
+     * One step of the schema history: brings a database from toVersion - 1 to toVersion, keeping
+     * its rows.
+     */
+    static abstract class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Oldest version the migrations start from.  Anything older is rebuilt from scratch.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // Every schema change since OLDEST_MIGRATABLE_VERSION, in order.  When changing the schema,
+    // bump DATABASE_VERSION, change onCreate and add the step that does the same to an existing
+    // database here.
+    private static final Migration[] MIGRATIONS = {
+            // Validators for conditional forecast requests
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_ETAG + " TEXT");
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_LAST_MODIFIED + " TEXT");
+                }
+            },
+            // Digest of the stored forecast
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_FORECAST_DIGEST + " TEXT");
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            // Retention: history depth per location and the history table
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_HISTORY_DAYS + " INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL(SQL_CREATE_HISTORY_TABLE);
+                }
+            }
+    };
+
+    // How long each migration of the last upgrade took, by the version it migrated to.
+    private final Map<Integer, Long> mMigrationMillis = new LinkedHashMap<Integer, Long>();
+
+    /**
+     * How the database connection is set up.
+     */
+    static class Tuning {
+        // The UI reads while the sync writes.  With write-ahead logging readers see the last
+        // committed data instead of waiting for the sync's transaction.  Needs Honeycomb.
+        final boolean writeAheadLogging;
+        // Only applies to a new database: it can't change once the database is in WAL mode.
+        final int pageSize;
+        // In pages, for the connection that writes.
+        final int cacheSize;
+        // NORMAL is safe with WAL, and with a rollback journal the worst a power cut does is
+        // lose a sync's worth of cached forecast.
+        final String synchronous;
+
+        Tuning(boolean writeAheadLogging, int pageSize, int cacheSize, String synchronous) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.pageSize = pageSize;
+            this.cacheSize = cacheSize;
+            this.synchronous = synchronous;
+        }
+
+        static final Tuning DEFAULT = new Tuning(true, 4096, 500, "NORMAL");
+    }
+
+    private final Tuning mTuning;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, Tuning.DEFAULT);
+    }
+
+    WeatherDbHelper(Context context, String name, Tuning tuning) {
+        super(context, name, null, DATABASE_VERSION);
+        mTuning = tuning;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(tuning.writeAheadLogging);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        // Runs before onCreate, so a new rollback-journal database gets the page size.  A WAL one
+        // is already in WAL mode here, which fixes its page size at the platform default.
+        tune(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // No onConfigure yet, so a new database keeps the default page size.
+            tune(db);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    && mTuning.writeAheadLogging && !db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+        }
+    }
+
+    private void tune(SQLiteDatabase db) {
+        if (db.isReadOnly()) {
+            return;
+        }
+        db.execSQL("PRAGMA page_size = " + mTuning.pageSize);
+        db.execSQL("PRAGMA cache_size = " + mTuning.cacheSize);
+        db.execSQL("PRAGMA synchronous = " + mTuning.synchronous);
+    }
+
+    /**
+     * Copies what the write-ahead log holds into the database, without waiting for readers.
+     * Meant for right after a sync wrote, so the log doesn't grow while the app is idle.
+     * Does nothing for a database that isn't in WAL mode.
+     *
+     * @return the number of pages written to the database.
+     */
+    int checkpoint() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Checkpoint modes need SQLite 3.7.6, which came with Jelly Bean.
+            return 0;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        int checkpointed = 0;
+        try {
+            // busy, log frames, checkpointed frames; -1 when not in WAL mode
+            if (cursor.moveToFirst() && cursor.getColumnCount() >= 3) {
+                checkpointed = Math.max(0, cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return checkpointed;
     }
 
     @Override
@@ -45,7 +229,11 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_FORECAST_DIGEST + " TEXT, " +
+                LocationEntry.COLUMN_HISTORY_DAYS + " INTEGER NOT NULL DEFAULT 0 " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +269,53 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // This database is only a cache for online data, but throwing it away means a blank UI
+        // and every user syncing at once after an update.  So upgrade it in place, one version at
+        // a time, and only start over when that isn't possible.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            rebuild(sqLiteDatabase);
+            return;
+        }
+
+        mMigrationMillis.clear();
+        try {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.toVersion <= oldVersion || migration.toVersion > newVersion) {
+                    continue;
+                }
+                long start = SystemClock.elapsedRealtime();
+                migration.migrate(sqLiteDatabase);
+                long millis = SystemClock.elapsedRealtime() - start;
+                mMigrationMillis.put(migration.toVersion, millis);
+                Log.i(LOG_TAG, "Migrated to version " + migration.toVersion + " in " + millis + "ms");
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Migration from version " + oldVersion + " failed, starting over", e);
+            mMigrationMillis.clear();
+            rebuild(sqLiteDatabase);
+        }
+    }
+
+    private void rebuild(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * @return how long each migration of the last upgrade took in milliseconds, by the version it
+     * migrated to and in the order they ran.  Empty if this helper didn't upgrade the database.
+     */
+    Map<Integer, Long> getMigrationMillis() {
+        return mMigrationMillis;
+    }
 }
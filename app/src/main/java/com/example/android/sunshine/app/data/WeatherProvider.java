@@ -17,14 +17,27 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
@@ -34,21 +47,40 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HISTORY = 400;
+
+    // Not a uri of its own: "weather/*" with a start date, which has its own SQL.
+    private static final int WEATHER_WITH_LOCATION_AND_START_DATE = 103;
+
+    // Added to the route of a "weather/*" uri with a limit.  Its SQL has a LIMIT ? OFFSET ? with
+    // the page in the arguments, so all the pages of a route share it.
+    private static final int PAGED = 1000;
+
+    // SQL of the location routes, which every screen and widget queries over and over.
+    static final QueryCache sQueryCache = new QueryCache(QueryCache.MAX_ENTRIES);
+
+    //This is an inner join which looks like
+    //weather INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherByLocationSettingTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    /**
+     * The SQL query() runs for a uri, and its arguments.  Building it apart from running it lets
+     * the tests check every route's query plan.
+     */
+    static class QuerySpec {
+        final String sql;
+        final String[] selectionArgs;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
-
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+        QuerySpec(String sql, String[] selectionArgs) {
+            this.sql = sql;
+            this.selectionArgs = selectionArgs;
+        }
     }
 
     //location.location_setting = ?
@@ -68,44 +100,63 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    private static QuerySpec getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        int route;
         String[] selectionArgs;
         String selection;
 
         if (startDate == 0) {
+            route = WEATHER_WITH_LOCATION;
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
+            route = WEATHER_WITH_LOCATION_AND_START_DATE;
             selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        if (limit > 0) {
+            String sql = sQueryCache.get(route + PAGED, projection, sortOrder);
+            if (sql == null) {
+                sql = getWeatherByLocationSettingSql(route, projection, selection, sortOrder)
+                        + " LIMIT ? OFFSET ?";
+                sQueryCache.put(route + PAGED, projection, sortOrder, sql);
+            }
+            String[] pageArgs = new String[selectionArgs.length + 2];
+            System.arraycopy(selectionArgs, 0, pageArgs, 0, selectionArgs.length);
+            pageArgs[selectionArgs.length] = Integer.toString(limit);
+            pageArgs[selectionArgs.length + 1] =
+                    Integer.toString(WeatherContract.WeatherEntry.getOffsetFromUri(uri));
+            return new QuerySpec(sql, pageArgs);
+        }
+
+        return new QuerySpec(getWeatherByLocationSettingSql(route, projection, selection, sortOrder),
+                selectionArgs);
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
+    private static QuerySpec getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+        return new QuerySpec(getWeatherByLocationSettingSql(WEATHER_WITH_LOCATION_AND_DATE,
+                projection, sLocationSettingAndDaySelection, sortOrder),
+                new String[]{locationSetting, Long.toString(date)});
+    }
+
+    private static String getWeatherByLocationSettingSql(int route, String[] projection,
+                                                         String selection, String sortOrder) {
+        String sql = sQueryCache.get(route, projection, sortOrder);
+        if (sql == null) {
+            sql = SQLiteQueryBuilder.buildQueryString(false, sWeatherByLocationSettingTables,
+                    projection, selection, null, null, sortOrder, null);
+            sQueryCache.put(route, projection, sortOrder, sql);
+        }
+        return sql;
     }
 
     /*
@@ -130,9 +181,37 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
         return matcher;
     }
 
+    /**
+     * What an applyBatch() in progress on a thread has changed so far.  Its notifications and
+     * snapshot invalidation wait until the batch's transaction commits.
+     */
+    private static class Batch {
+        final Set<Uri> mChangedUris = new LinkedHashSet<Uri>();
+        boolean mSnapshotsChanged;
+        boolean mCommitted;
+        private WeatherUpsert mUpsert;
+
+        @TargetApi(11)
+        WeatherUpsert getUpsert(SQLiteDatabase db) {
+            if (mUpsert == null) {
+                mUpsert = new WeatherUpsert(db);
+            }
+            return mUpsert;
+        }
+
+        void close() {
+            if (mUpsert != null) {
+                mUpsert.close();
+            }
+        }
+    }
+
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
@@ -164,6 +243,8 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,53 +253,66 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        QuerySpec query = buildQuery(uri, projection, selection, selectionArgs, sortOrder);
+        Cursor retCursor = mOpenHelper.getReadableDatabase().rawQuery(query.sql, query.selectionArgs);
+        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return retCursor;
+    }
+
+    static QuerySpec buildQuery(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
-        Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
+                return getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
+                return getWeatherByLocationSetting(uri, projection, sortOrder);
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                return new QuerySpec(SQLiteQueryBuilder.buildQueryString(false,
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
-                        selectionArgs,
                         null,
                         null,
-                        sortOrder
-                );
-                break;
+                        sortOrder,
+                        null
+                ), selectionArgs);
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                return new QuerySpec(SQLiteQueryBuilder.buildQueryString(false,
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
-                        selectionArgs,
                         null,
                         null,
-                        sortOrder
-                );
-                break;
+                        sortOrder,
+                        null
+                ), selectionArgs);
+            }
+            // "history"
+            case HISTORY: {
+                return new QuerySpec(SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        null,
+                        null,
+                        sortOrder,
+                        null
+                ), selectionArgs);
             }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return retCursor;
     }
 
     /*
@@ -232,8 +326,16 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                Batch batch = mBatch.get();
+                if (batch != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    // A batch stores a sync's changed days: update the ones we have in place,
+                    // with statements compiled once for the whole batch.
+                    _id = batch.getUpsert(db).upsertForId(values);
+                } else {
+                    normalizeDate(values);
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -251,7 +353,8 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        invalidateSnapshots();
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -276,7 +379,8 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateSnapshots();
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -309,12 +413,25 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        if (rowsUpdated != 0 && (match == WEATHER || changesSnapshot(values))) {
+            invalidateSnapshots();
+        }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    // Whether a location update changes what a ForecastSnapshot holds, rather than only the
+    // sync state the sync keeps with the location.
+    private static boolean changesSnapshot(ContentValues locationValues) {
+        return locationValues.containsKey(WeatherContract.LocationEntry._ID)
+                || locationValues.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                || locationValues.containsKey(WeatherContract.LocationEntry.COLUMN_CITY_NAME)
+                || locationValues.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                || locationValues.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -324,24 +441,212 @@ public class WeatherProvider extends ContentProvider {
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                        // Update days we already have in place, so their ids stay the same.
+                        WeatherUpsert upsert = new WeatherUpsert(db);
+                        try {
+                            for (ContentValues value : values) {
+                                if (upsert.upsert(value)) {
+                                    returnCount++;
+                                }
+                            }
+                        } finally {
+                            upsert.close();
+                        }
+                    } else {
+                        for (ContentValues value : values) {
+                            normalizeDate(value);
+                            long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                            if (_id != -1) {
+                                returnCount++;
+                            }
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                invalidateSnapshots();
+                notifyChange(uri);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in one transaction.  Loaders are told once per uri that changed,
+     * after the transaction commits, instead of after every operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatch.get() != null) {
+            // Already in this thread's batch.
+            return super.applyBatch(operations);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = beginBatch(db);
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            batch.mCommitted = true;
+            return results;
+        } finally {
+            endBatch(db, batch);
+        }
+    }
+
+    private Batch beginBatch(SQLiteDatabase db) {
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        db.beginTransaction();
+        return batch;
+    }
+
+    private void endBatch(SQLiteDatabase db, Batch batch) {
+        try {
+            batch.close();
+            db.endTransaction();
+        } finally {
+            mBatch.remove();
+        }
+        if (batch.mCommitted) {
+            if (batch.mSnapshotsChanged) {
+                ForecastSnapshotCache.invalidateAll();
+            }
+            for (Uri uri : batch.mChangedUris) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * Like an applyBatch() of the operations followed by an insert of each day, but the days are
+     * written straight from the table's columns instead of a ContentValues per day.
+     *
+     * @param locationOperations for each day without a location, the index of the operation
+     *                           that inserted its location row.
+     * @return the number of weather rows written.
+     */
+    @TargetApi(11)
+    private int storeForecast(ArrayList<ContentProviderOperation> operations, ForecastTable days,
+                              int[] locationOperations) throws OperationApplicationException {
+        if (mBatch.get() != null) {
+            throw new IllegalStateException("Can't store a forecast inside a batch");
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = beginBatch(db);
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            WeatherUpsert upsert = batch.getUpsert(db);
+            for (int day = 0; day < days.size(); day++) {
+                long locationId = days.getLocationId(day);
+                if (locationId == ForecastTable.NO_LOCATION) {
+                    int operation = locationOperations != null && day < locationOperations.length
+                            ? locationOperations[day] : -1;
+                    if (operation < 0 || operation >= results.length
+                            || results[operation].uri == null) {
+                        throw new OperationApplicationException(
+                                "No location inserted for day " + day);
+                    }
+                    locationId = ContentUris.parseId(results[operation].uri);
+                }
+                // Same as a failed insert in a batch: nothing of the forecast is stored.
+                if (!upsert.upsert(locationId, days.getDate(day), days.getWeatherId(day),
+                        days.getShortDesc(day), days.getMinTemp(day), days.getMaxTemp(day),
+                        days.getHumidity(day), days.getPressure(day), days.getWindSpeed(day),
+                        days.getDegrees(day))) {
+                    throw new android.database.SQLException("Failed to store day " + day);
+                }
+            }
+            if (days.size() > 0) {
+                invalidateSnapshots();
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+            db.setTransactionSuccessful();
+            batch.mCommitted = true;
+            return days.size();
+        } finally {
+            endBatch(db, batch);
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mChangedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private void invalidateSnapshots() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            // Dropping them before the commit would let a reader cache the old forecast again.
+            batch.mSnapshotsChanged = true;
+        } else {
+            ForecastSnapshotCache.invalidateAll();
+        }
+    }
+
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_PAGES, mOpenHelper.checkpoint());
+            return result;
+        }
+        if (WeatherContract.METHOD_COMPACT.equals(method)) {
+            return compact(WeatherContract.normalizeDate(System.currentTimeMillis()));
+        }
+        if (WeatherContract.METHOD_STORE_FORECAST.equals(method)) {
+            ForecastTable days = ForecastTable.fromBundle(extras);
+            if (days == null) {
+                throw new IllegalArgumentException("No forecast to store");
+            }
+            ArrayList<ContentProviderOperation> operations =
+                    extras.getParcelableArrayList(WeatherContract.EXTRA_OPERATIONS);
+            if (operations == null) {
+                operations = new ArrayList<ContentProviderOperation>();
+            }
+            Bundle result = new Bundle();
+            try {
+                result.putInt(WeatherContract.EXTRA_ROWS, storeForecast(operations, days,
+                        extras.getIntArray(WeatherContract.EXTRA_LOCATION_OPERATIONS)));
+            } catch (OperationApplicationException e) {
+                // call() can't throw it, and everything was rolled back like for applyBatch().
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private Bundle compact(long today) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int deleted = WeatherRetention.deleteExpired(db, today);
+        if (deleted > 0) {
+            // Nothing shows days before today, but snapshots and queries of the whole table do.
+            invalidateSnapshots();
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS, deleted);
+        try {
+            result.putInt(WeatherContract.EXTRA_PAGES, (int) WeatherRetention.vacuum(db));
+        } catch (SQLiteDatabaseLockedException e) {
+            // A full VACUUM needs the database to itself.  The deletes are committed, so only
+            // the vacuum has to run again.
+            Log.w(LOG_TAG, "Database busy, vacuum postponed", e);
+            result.putBoolean(WeatherContract.EXTRA_RETRY, true);
+        }
+        return result;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Ages weather rows out of the database.  The days of a location from before its history depth
+ * are folded into weekly rows of the history table and deleted, a chunk per transaction so that
+ * the sync and the screens never wait long behind a compaction, and the pages they held are then
+ * given back to the file system.
+ */
+class WeatherRetention {
+
+    // Weather rows deleted per transaction.
+    static final int DELETE_CHUNK = 100;
+
+    // SQLite's PRAGMA auto_vacuum values
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final String[] LOCATION_PROJECTION = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_HISTORY_DAYS
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_HISTORY_DAYS = 1;
+
+    private static final String[] EXPIRED_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_MIN_TEMP = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+
+    private static final String[] HISTORY_PROJECTION = {
+            HistoryEntry.COLUMN_MIN_TEMP,
+            HistoryEntry.COLUMN_MAX_TEMP,
+            HistoryEntry.COLUMN_DAY_COUNT
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_HISTORY_MIN_TEMP = 0;
+    private static final int INDEX_HISTORY_MAX_TEMP = 1;
+    private static final int INDEX_HISTORY_DAY_COUNT = 2;
+
+    private static final String sExpiredSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    private static final String sChunkSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " <= ?";
+
+    private static final String sHistoryWeekSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = ? AND " + HistoryEntry.COLUMN_WEEK + " = ?";
+
+    /**
+     * Deletes the weather rows of every location that are older than its history depth, after
+     * adding them to the history table.
+     *
+     * @param today normalized date of today.  A location keeping no history keeps today on.
+     * @return the number of weather rows deleted.
+     */
+    static int deleteExpired(SQLiteDatabase db, long today) {
+        long[] locationIds;
+        int[] historyDays;
+        Cursor locations = db.query(LocationEntry.TABLE_NAME, LOCATION_PROJECTION,
+                null, null, null, null, null);
+        try {
+            locationIds = new long[locations.getCount()];
+            historyDays = new int[locations.getCount()];
+            for (int i = 0; locations.moveToNext(); i++) {
+                locationIds[i] = locations.getLong(INDEX_LOCATION_ID);
+                historyDays[i] = Math.max(0, locations.getInt(INDEX_HISTORY_DAYS));
+            }
+        } finally {
+            locations.close();
+        }
+
+        int deleted = 0;
+        for (int i = 0; i < locationIds.length; i++) {
+            long cutoff = daysBefore(today, historyDays[i]);
+            int chunk;
+            do {
+                chunk = deleteChunk(db, locationIds[i], cutoff);
+                deleted += chunk;
+            } while (chunk == DELETE_CHUNK);
+        }
+        return deleted;
+    }
+
+    /**
+     * Moves the oldest DELETE_CHUNK days of a location before cutoff to the history table in one
+     * transaction.
+     *
+     * @return the number of weather rows deleted, less than DELETE_CHUNK once there are no more.
+     */
+    private static int deleteChunk(SQLiteDatabase db, long locationId, long cutoff) {
+        String location = Long.toString(locationId);
+        db.beginTransaction();
+        try {
+            Cursor expired = db.query(WeatherEntry.TABLE_NAME, EXPIRED_PROJECTION,
+                    sExpiredSelection, new String[]{location, Long.toString(cutoff)},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(DELETE_CHUNK));
+            long lastDate;
+            try {
+                if (!expired.moveToFirst()) {
+                    return 0;
+                }
+                // Days come in date order, so each week's days are next to each other.
+                long week = weekOf(expired.getLong(INDEX_DATE));
+                double low = Double.MAX_VALUE;
+                double high = -Double.MAX_VALUE;
+                int days = 0;
+                do {
+                    long date = expired.getLong(INDEX_DATE);
+                    if (weekOf(date) != week) {
+                        addToHistory(db, locationId, week, low, high, days);
+                        week = weekOf(date);
+                        low = Double.MAX_VALUE;
+                        high = -Double.MAX_VALUE;
+                        days = 0;
+                    }
+                    low = Math.min(low, expired.getDouble(INDEX_MIN_TEMP));
+                    high = Math.max(high, expired.getDouble(INDEX_MAX_TEMP));
+                    days++;
+                    lastDate = date;
+                } while (expired.moveToNext());
+                addToHistory(db, locationId, week, low, high, days);
+            } finally {
+                expired.close();
+            }
+
+            // A location has one row per date, so these are exactly the rows read above.
+            int deleted = db.delete(WeatherEntry.TABLE_NAME, sChunkSelection,
+                    new String[]{location, Long.toString(lastDate)});
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void addToHistory(SQLiteDatabase db, long locationId, long week, double low,
+                                     double high, int days) {
+        // Earlier compactions may have stored other days of the same week.
+        Cursor stored = db.query(HistoryEntry.TABLE_NAME, HISTORY_PROJECTION,
+                sHistoryWeekSelection, new String[]{Long.toString(locationId), Long.toString(week)},
+                null, null, null);
+        try {
+            if (stored.moveToFirst()) {
+                low = Math.min(low, stored.getDouble(INDEX_HISTORY_MIN_TEMP));
+                high = Math.max(high, stored.getDouble(INDEX_HISTORY_MAX_TEMP));
+                days += stored.getInt(INDEX_HISTORY_DAY_COUNT);
+            }
+        } finally {
+            stored.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HistoryEntry.COLUMN_WEEK, week);
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, low);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, high);
+        values.put(HistoryEntry.COLUMN_DAY_COUNT, days);
+        db.insertWithOnConflict(HistoryEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * @return the normalized date the given number of days before a normalized date.  Counted in
+     * days rather than milliseconds, which are off by an hour across a daylight saving change.
+     */
+    static long daysBefore(long date, int days) {
+        Time time = new Time();
+        time.set(date);
+        return time.setJulianDay(Time.getJulianDay(date, time.gmtoff) - days);
+    }
+
+    /**
+     * @return the normalized date of the Monday of the week the normalized date is in.
+     */
+    static long weekOf(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        // Julian day 0 was a Monday.
+        return time.setJulianDay(julianDay - julianDay % 7);
+    }
+
+    /**
+     * Gives the free pages of the database file back to the file system.  The first compaction
+     * of a database gets a full VACUUM instead, which also turns on incremental auto-vacuum for
+     * the ones after it.  Can't run inside a transaction, and the full VACUUM throws
+     * SQLiteDatabaseLockedException while another connection is using the database.
+     *
+     * @return the number of pages freed.
+     */
+    static long vacuum(SQLiteDatabase db) {
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else if (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0) {
+            // The pragma frees a page per step, so the cursor has to be run to the end.
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        return pages - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+    }
+}
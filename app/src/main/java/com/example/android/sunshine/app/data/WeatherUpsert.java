@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes weather rows with two statements compiled once per batch: an UPDATE of the row for the
+ * same location and day, and an INSERT when there is none yet.
+ * <p>
+ * Unlike the table's ON CONFLICT REPLACE, which deletes the old row and inserts a new one, an
+ * existing row is updated in place and keeps its _ID.  SQLite only has an upsert statement from
+ * 3.24 (Android 11), so the two statements stand in for it.  Counting the rows an UPDATE changed
+ * needs {@link SQLiteStatement#executeUpdateDelete()}, hence Honeycomb.
+ * <p>
+ * Use it inside a transaction, and {@link #close()} it when the batch is done.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class WeatherUpsert {
+
+    // Bind indices of the value columns, shared by both statements.
+    private static final int BIND_WEATHER_ID = 1;
+    private static final int BIND_SHORT_DESC = 2;
+    private static final int BIND_MIN_TEMP = 3;
+    private static final int BIND_MAX_TEMP = 4;
+    private static final int BIND_HUMIDITY = 5;
+    private static final int BIND_PRESSURE = 6;
+    private static final int BIND_WIND_SPEED = 7;
+    private static final int BIND_DEGREES = 8;
+    // followed by the key columns
+    private static final int BIND_LOC_KEY = 9;
+    private static final int BIND_DATE = 10;
+
+    private static final String SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+            WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+            WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+            WeatherEntry.COLUMN_DEGREES + " = ? " +
+            "WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String SQL_INSERT = "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_FIND_ID = "SELECT " + WeatherEntry._ID +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " = ?";
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mInsert;
+    // Only compiled for callers that need the row id.
+    private SQLiteStatement mFindId;
+    // A batch repeats the same handful of days for every location.
+    private final LongSparseArray<Long> mNormalizedDates = new LongSparseArray<Long>();
+
+    WeatherUpsert(SQLiteDatabase db) {
+        mDb = db;
+        mUpdate = db.compileStatement(SQL_UPDATE);
+        mInsert = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Writes one day of weather.  The date is normalized to the start of its day.
+     *
+     * @return false if the row breaks a constraint and wasn't written.
+     */
+    boolean upsert(long locationId, long date, int weatherId, String shortDesc,
+                   double minTemp, double maxTemp, double humidity, double pressure,
+                   double windSpeed, double degrees) {
+        long day = normalizeDate(date);
+        try {
+            bind(mUpdate, locationId, day, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                    pressure, windSpeed, degrees);
+            if (mUpdate.executeUpdateDelete() > 0) {
+                return true;
+            }
+            // No row for this day yet.
+            bind(mInsert, locationId, day, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                    pressure, windSpeed, degrees);
+            return mInsert.executeInsert() != -1;
+        } catch (SQLiteConstraintException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes one day of weather given as ContentValues, as handed to the provider.
+     *
+     * @return false if a column is missing or the row breaks a constraint, and it wasn't written.
+     */
+    boolean upsert(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        Double minTemp = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double maxTemp = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double pressure = values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+        if (locationId == null || date == null || weatherId == null || shortDesc == null
+                || minTemp == null || maxTemp == null || humidity == null || pressure == null
+                || windSpeed == null || degrees == null) {
+            // Every column is NOT NULL.
+            return false;
+        }
+        return upsert(locationId, date, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                pressure, windSpeed, degrees);
+    }
+
+    /**
+     * Writes one day of weather given as ContentValues, like {@link #upsert(ContentValues)}.
+     *
+     * @return the id of the row written, which is the row that was already there for the day if
+     * there was one, or -1 if nothing was written.
+     */
+    long upsertForId(ContentValues values) {
+        if (!upsert(values)) {
+            return -1;
+        }
+        if (mFindId == null) {
+            mFindId = mDb.compileStatement(SQL_FIND_ID);
+        }
+        mFindId.bindLong(1, values.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        mFindId.bindLong(2, normalizeDate(values.getAsLong(WeatherEntry.COLUMN_DATE)));
+        return mFindId.simpleQueryForLong();
+    }
+
+    void close() {
+        mUpdate.close();
+        mInsert.close();
+        if (mFindId != null) {
+            mFindId.close();
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, long locationId, long day, int weatherId,
+                             String shortDesc, double minTemp, double maxTemp, double humidity,
+                             double pressure, double windSpeed, double degrees) {
+        statement.bindLong(BIND_WEATHER_ID, weatherId);
+        if (shortDesc == null) {
+            // The NOT NULL constraint turns this into a row that isn't written.
+            statement.bindNull(BIND_SHORT_DESC);
+        } else {
+            statement.bindString(BIND_SHORT_DESC, shortDesc);
+        }
+        statement.bindDouble(BIND_MIN_TEMP, minTemp);
+        statement.bindDouble(BIND_MAX_TEMP, maxTemp);
+        statement.bindDouble(BIND_HUMIDITY, humidity);
+        statement.bindDouble(BIND_PRESSURE, pressure);
+        statement.bindDouble(BIND_WIND_SPEED, windSpeed);
+        statement.bindDouble(BIND_DEGREES, degrees);
+        statement.bindLong(BIND_LOC_KEY, locationId);
+        statement.bindLong(BIND_DATE, day);
+    }
+
+    private long normalizeDate(long date) {
+        Long normalized = mNormalizedDates.get(date);
+        if (normalized == null) {
+            normalized = WeatherContract.normalizeDate(date);
+            mNormalizedDates.put(date, normalized);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/**
+ * Decides how often the periodic sync runs, from what the last syncs found.
+ * <ul>
+ * <li>Every sync that finds the forecast unchanged stretches the interval by half, up to
+ * {@link #MAX_INTERVAL}.</li>
+ * <li>A changed forecast after a quiet stretch brings it back to {@link #DEFAULT_INTERVAL}, and
+ * further changes in a row halve it, down to {@link #MIN_INTERVAL}.</li>
+ * <li>A weather alert goes straight to {@link #MIN_INTERVAL}.</li>
+ * </ul>
+ * The flex window is half the interval, wide enough for the sync manager to line our sync up with
+ * other apps' network traffic on KitKat and later.
+ * <p>
+ * This class only holds the policy and has no Android dependencies, so recorded
+ * {@link Decision}s can be replayed against it.  {@link SyncScheduler} persists it and applies
+ * its decisions.
+ */
+public class AdaptiveSyncPolicy {
+    // Intervals are in seconds, like SunshineSyncAdapter.SYNC_INTERVAL.
+    public static final int DEFAULT_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL;
+    public static final int MIN_INTERVAL = DEFAULT_INTERVAL / 2;
+    public static final int MAX_INTERVAL = DEFAULT_INTERVAL * 6;
+
+    public static final String EVENT_UNCHANGED = "unchanged";
+    public static final String EVENT_CHANGED = "changed";
+    public static final String EVENT_ALERT = "alert";
+
+    private int mInterval;
+    private int mChangedStreak;
+
+    public AdaptiveSyncPolicy(int interval, int changedStreak) {
+        mInterval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        mChangedStreak = changedStreak;
+    }
+
+    public int getInterval() {
+        return mInterval;
+    }
+
+    public int getChangedStreak() {
+        return mChangedStreak;
+    }
+
+    public static int getFlexTime(int interval) {
+        return interval / 2;
+    }
+
+    /**
+     * Updates the interval for something that happened at the given time.
+     *
+     * @param event one of the EVENT_ constants
+     * @return what was decided, and why.
+     */
+    public Decision onEvent(String event, long timeMillis) {
+        int before = mInterval;
+        int streakBefore = mChangedStreak;
+        if (EVENT_UNCHANGED.equals(event)) {
+            mChangedStreak = 0;
+            mInterval = Math.min(MAX_INTERVAL, mInterval + mInterval / 2);
+        } else if (EVENT_CHANGED.equals(event)) {
+            mChangedStreak++;
+            if (mChangedStreak > 1) {
+                mInterval = Math.max(MIN_INTERVAL, mInterval / 2);
+            } else {
+                mInterval = Math.min(DEFAULT_INTERVAL, mInterval);
+            }
+        } else if (EVENT_ALERT.equals(event)) {
+            mInterval = MIN_INTERVAL;
+        } else {
+            throw new IllegalArgumentException("Unknown sync event: " + event);
+        }
+        return new Decision(timeMillis, event, before, mInterval, streakBefore, mChangedStreak);
+    }
+
+    /**
+     * One scheduling decision: the event that caused it and the policy state before and after.
+     * A trace can be replayed from any decision by starting a policy with its intervalBefore
+     * and changedStreakBefore.
+     */
+    public static class Decision {
+        public final long timeMillis;
+        public final String event;
+        public final int intervalBefore;
+        public final int intervalAfter;
+        public final int changedStreakBefore;
+        public final int changedStreakAfter;
+
+        public Decision(long timeMillis, String event, int intervalBefore, int intervalAfter,
+                        int changedStreakBefore, int changedStreakAfter) {
+            this.timeMillis = timeMillis;
+            this.event = event;
+            this.intervalBefore = intervalBefore;
+            this.intervalAfter = intervalAfter;
+            this.changedStreakBefore = changedStreakBefore;
+            this.changedStreakAfter = changedStreakAfter;
+        }
+
+        /**
+         * @return the decision as a line of a trace, readable by {@link #fromString(String)}.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d,%s,%d,%d,%d,%d", timeMillis, event,
+                    intervalBefore, intervalAfter, changedStreakBefore, changedStreakAfter);
+        }
+
+        public static Decision fromString(String line) {
+            String[] fields = line.split(",");
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("Not a sync decision: " + line);
+            }
+            return new Decision(Long.parseLong(fields[0]), fields[1],
+                    Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5]));
+        }
+    }
+}
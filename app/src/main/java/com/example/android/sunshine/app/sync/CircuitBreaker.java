@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Random;
+
+/**
+ * Stops the sync adapter from hammering the weather server while it is down.
+ * <p>
+ * Every sync that fails to reach the server opens the circuit for a backoff that doubles with
+ * each consecutive failure, from {@link #BASE_BACKOFF_MILLIS} up to {@link #MAX_BACKOFF_MILLIS}.
+ * Half of each backoff is random so that devices that failed together don't retry together.
+ * While the circuit is open syncs don't go to the network at all; the first sync after it
+ * expires is let through as a trial, and a success closes the circuit again.
+ * <p>
+ * The state lives in its own SharedPreferences file and uses wall clock time, so a backoff
+ * survives the sync process being killed.
+ */
+public class CircuitBreaker {
+    private static final String PREFS_NAME = "sync_circuit";
+
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_OPEN_UNTIL = "open_until";
+
+    static final long BASE_BACKOFF_MILLIS = 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return how long the circuit stays open, or 0 if syncs may go to the network.
+     */
+    public static synchronized long getRemainingMillis(Context context, long nowMillis) {
+        long remaining = getPreferences(context).getLong(KEY_OPEN_UNTIL, 0) - nowMillis;
+        // Longer than any backoff means the clock was set back; don't stay stuck open.
+        if (remaining <= 0 || remaining > MAX_BACKOFF_MILLIS) {
+            return 0;
+        }
+        return remaining;
+    }
+
+    public static int getFailures(Context context) {
+        return getPreferences(context).getInt(KEY_FAILURES, 0);
+    }
+
+    /**
+     * Records a sync that reached the server, which closes the circuit.
+     */
+    public static synchronized void onSuccess(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        if (prefs.getInt(KEY_FAILURES, 0) != 0) {
+            prefs.edit().clear().apply();
+        }
+    }
+
+    /**
+     * Records a sync that couldn't reach the server and opens the circuit.
+     *
+     * @return how long the circuit is open for.
+     */
+    public static synchronized long onFailure(Context context, long nowMillis) {
+        SharedPreferences prefs = getPreferences(context);
+        int failures = prefs.getInt(KEY_FAILURES, 0) + 1;
+        long backoff = getBackoffMillis(failures, sRandom);
+        prefs.edit()
+                .putInt(KEY_FAILURES, failures)
+                .putLong(KEY_OPEN_UNTIL, nowMillis + backoff)
+                .apply();
+        return backoff;
+    }
+
+    public static void reset(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+
+    /**
+     * @return a backoff between half and all of BASE_BACKOFF_MILLIS * 2^(failures - 1), capped
+     * at MAX_BACKOFF_MILLIS.
+     */
+    static long getBackoffMillis(int failures, Random random) {
+        long backoff = MAX_BACKOFF_MILLIS;
+        // Past 2^30 the shift would overflow, and the cap was hit long before anyway.
+        if (failures <= 30) {
+            backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.max(0, failures - 1));
+        }
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.ForecastTable;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Canonical form of the weather rows of a forecast, used to tell whether a freshly downloaded
+ * forecast is any different from what is already stored.
+ * <p>
+ * A day is reduced to a key holding every stored column except the row and location ids.  Keys
+ * built from a parsed ForecastTable and from weather table rows compare equal when the rows hold
+ * the same values, and a forecast's digest is a SHA-1 of its day keys in order.
+ */
+public class ForecastDigest {
+
+    /**
+     * Columns a day key is built from.  Query the weather table with this projection to use
+     * {@link #dayKey(Cursor)}.
+     */
+    public static final String[] DAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match DAY_COLUMNS
+    public static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+
+    /**
+     * @return the key of a parsed day, as built by {@link ForecastResponse}.
+     */
+    public static String dayKey(ForecastTable days, int day) {
+        // Every number is a double, which is how the weather table stores them.
+        return dayKey(days.getDate(day),
+                days.getWeatherId(day),
+                days.getShortDesc(day),
+                days.getMinTemp(day),
+                days.getMaxTemp(day),
+                days.getHumidity(day),
+                days.getPressure(day),
+                days.getWindSpeed(day),
+                days.getDegrees(day));
+    }
+
+    /**
+     * @return the key of the current row of a cursor queried with {@link #DAY_COLUMNS}.
+     */
+    public static String dayKey(Cursor cursor) {
+        return dayKey(cursor.getLong(INDEX_DATE),
+                cursor.getInt(INDEX_WEATHER_ID),
+                cursor.getString(INDEX_SHORT_DESC),
+                cursor.getDouble(INDEX_MIN_TEMP),
+                cursor.getDouble(INDEX_MAX_TEMP),
+                cursor.getDouble(INDEX_HUMIDITY),
+                cursor.getDouble(INDEX_PRESSURE),
+                cursor.getDouble(INDEX_WIND_SPEED),
+                cursor.getDouble(INDEX_DEGREES));
+    }
+
+    private static String dayKey(long date, int weatherId, String description, double low,
+                                 double high, double humidity, double pressure, double windSpeed,
+                                 double degrees) {
+        return new StringBuilder(96)
+                .append(date).append('|')
+                .append(weatherId).append('|')
+                .append(low).append('|')
+                .append(high).append('|')
+                .append(humidity).append('|')
+                .append(pressure).append('|')
+                .append(windSpeed).append('|')
+                .append(degrees).append('|')
+                .append(description)
+                .toString();
+    }
+
+    /**
+     * @return a hex SHA-1 of the keys of the given days, in order.
+     */
+    public static String digest(ForecastTable days) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            for (int day = 0; day < days.size(); day++) {
+                sha1.update(dayKey(days, day).getBytes("UTF-8"));
+                sha1.update((byte) '\n');
+            }
+            byte[] hash = sha1.digest();
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to exist on Android.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.ForecastTable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * The part of an OpenWeatherMap daily forecast response that we keep: the city and a
+ * {@link ForecastTable} of its days, ready to be stored once the location row id is known.
+ * <p>
+ * {@link #parse(InputStream)} pulls the values straight off the network stream with a
+ * {@link JsonReader}, so the payload is never held as a String or as a JSONObject tree.
+ * {@link #parse(String)} is the JSONObject based parser, kept for devices older than Honeycomb.
+ */
+public class ForecastResponse {
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_LOCATION_NOT_FOUND = 1;
+    public static final int STATUS_SERVER_ERROR = 2;
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Every value a day needs before it can become a row in the weather table.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_DAY_FIELDS = (1 << 8) - 1;
+
+    private int mStatus = STATUS_OK;
+    private String mCityName;
+    private double mCityLatitude;
+    private double mCityLongitude;
+    private final ForecastTable mDays = new ForecastTable(16);
+
+    // OWM returns daily forecasts based upon the local time of the city that is being
+    // asked for, which means that we need to know the GMT offset to translate this data
+    // properly.
+
+    // Since this data is also sent in-order and the first day is always the
+    // current day, we're going to take advantage of that to get a nice
+    // normalized UTC date for all of our weather.
+    private final int mJulianStartDay;
+    private final Time mDayTime;
+
+    private ForecastResponse() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public String getCityName() {
+        return mCityName;
+    }
+
+    public double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    public double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    /**
+     * @return the days in order, keyed to {@link ForecastTable#NO_LOCATION}.
+     */
+    public ForecastTable getDays() {
+        return mDays;
+    }
+
+    /**
+     * Reads the forecast straight from the response stream.  The stream is consumed, but not
+     * closed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ForecastResponse parse(InputStream in) throws IOException, JSONException {
+        ForecastResponse response = new ForecastResponse();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            boolean hasCity = false;
+            boolean hasList = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" is a String in successful responses and a number in some errors,
+                    // nextString() handles both.
+                    if (!response.setMessageCode(Integer.parseInt(reader.nextString()))) {
+                        // Nothing else in an error response is of any use to us.
+                        return response;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    response.readCity(reader);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    response.readDays(reader);
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!hasCity || !hasList) {
+                throw new JSONException("Forecast is missing its " + (hasCity ? OWM_LIST : OWM_CITY));
+            }
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The server answered, but not with a forecast we understand.
+            throw new JSONException(e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     * <p>
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     */
+    public static ForecastResponse parse(String forecastJsonStr) throws JSONException {
+        ForecastResponse response = new ForecastResponse();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)
+                && !response.setMessageCode(forecastJson.getInt(OWM_MESSAGE_CODE))) {
+            return response;
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        response.mCityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        response.mCityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        response.mCityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            response.addDay(dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID));
+        }
+        return response;
+    }
+
+    /**
+     * @return true if the rest of the response is worth reading.
+     */
+    private boolean setMessageCode(int messageCode) {
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                return true;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                mStatus = STATUS_LOCATION_NOT_FOUND;
+                return false;
+            default:
+                mStatus = STATUS_SERVER_ERROR;
+                return false;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readCity(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                mCityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        mCityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        mCityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readDays(JsonReader reader) throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            double pressure = 0;
+            int humidity = 0;
+            double windSpeed = 0;
+            double windDirection = 0;
+            double high = 0;
+            double low = 0;
+            String description = null;
+            int weatherId = 0;
+            int fields = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                    fields |= FIELD_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    humidity = reader.nextInt();
+                    fields |= FIELD_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                    fields |= FIELD_WIND_SPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    windDirection = reader.nextDouble();
+                    fields |= FIELD_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String temperatureName = reader.nextName();
+                        if (OWM_MAX.equals(temperatureName)) {
+                            high = reader.nextDouble();
+                            fields |= FIELD_MAX;
+                        } else if (OWM_MIN.equals(temperatureName)) {
+                            low = reader.nextDouble();
+                            fields |= FIELD_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Only the first element of the "weather" array is used.
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)
+                                    && reader.peek() != JsonToken.NULL) {
+                                description = reader.nextString();
+                                fields |= FIELD_DESCRIPTION;
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                fields |= FIELD_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (fields != ALL_DAY_FIELDS) {
+                throw new JSONException("Incomplete forecast for day " + mDays.size());
+            }
+            addDay(pressure, humidity, windSpeed, windDirection, high, low, description, weatherId);
+        }
+        reader.endArray();
+    }
+
+    private void addDay(double pressure, int humidity, double windSpeed, double windDirection,
+                        double high, double low, String description, int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + mDays.size());
+
+        mDays.add(ForecastTable.NO_LOCATION, dateTime, weatherId, description, low, high,
+                humidity, pressure, windSpeed, windDirection);
+    }
+}
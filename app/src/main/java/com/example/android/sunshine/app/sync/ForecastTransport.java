@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * How the sync adapter talks to the weather server.  {@link PooledHttpTransport} is the real
+ * thing; tests plug in canned responses instead.
+ */
+public interface ForecastTransport {
+
+    /**
+     * Sends a GET request.  The returned response must always be closed.
+     *
+     * @param url            the full request URL
+     * @param requestHeaders extra request headers, e.g. validators for a conditional request
+     */
+    Response get(String url, Map<String, String> requestHeaders) throws IOException;
+
+    interface Response {
+        int getResponseCode() throws IOException;
+
+        /**
+         * @return the value of a response header, or null if it wasn't sent.
+         */
+        String getHeaderField(String name);
+
+        /**
+         * @return the decoded response body.  Like HttpURLConnection, throws for error responses.
+         */
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * @return the decoded body of an error response, or null if there is none.
+         */
+        InputStream getErrorStream() throws IOException;
+
+        /**
+         * Releases the response, giving its connection back for reuse when possible.
+         */
+        void close();
+    }
+}
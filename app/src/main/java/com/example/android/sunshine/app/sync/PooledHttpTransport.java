@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link ForecastTransport} on top of HttpURLConnection, set up so that consecutive requests
+ * share a kept-alive connection and the forecast travels gzipped.
+ * <p>
+ * HttpURLConnection pools connections per host on its own, as long as each response body is read
+ * to the end and closed instead of calling disconnect().  {@link Response#close()} does exactly
+ * that, and only disconnects when the body can't be drained.
+ */
+public class PooledHttpTransport implements ForecastTransport {
+    private static final String LOG_TAG = PooledHttpTransport.class.getSimpleName();
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    @Override
+    public ForecastTransport.Response get(String url, Map<String, String> requestHeaders)
+            throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        // Asking for gzip explicitly means we have to decode it ourselves, but it works the same
+        // on every platform version.
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        urlConnection.connect();
+        return new Response(urlConnection);
+    }
+
+    private static class Response implements ForecastTransport.Response {
+        private final HttpURLConnection mConnection;
+        private InputStream mInputStream;
+
+        Response(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = decode(mConnection.getInputStream());
+            }
+            return mInputStream;
+        }
+
+        @Override
+        public InputStream getErrorStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = decode(mConnection.getErrorStream());
+            }
+            return mInputStream;
+        }
+
+        private InputStream decode(InputStream inputStream) throws IOException {
+            if (inputStream != null
+                    && "gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            return inputStream;
+        }
+
+        @Override
+        public void close() {
+            try {
+                InputStream inputStream = mInputStream != null
+                        ? mInputStream : mConnection.getErrorStream();
+                if (inputStream == null && mConnection.getResponseCode() < 400) {
+                    // e.g. a 304, or a body nobody asked for.
+                    inputStream = mConnection.getInputStream();
+                }
+                if (inputStream != null) {
+                    // The connection only goes back to the pool once its body was consumed.
+                    byte[] buffer = new byte[1024];
+                    while (inputStream.read(buffer) != -1) {
+                        // discard
+                    }
+                    inputStream.close();
+                }
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Dropping connection that can't be reused", e);
+                mConnection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells everything that shows the weather about a sync, off the sync thread.
+ * <p>
+ * Each consumer runs on its own pool thread, so a slow one (say, a notification waiting for its
+ * icon to download) holds up neither the sync nor the other consumers.  A consumer still running
+ * when its timeout is up is interrupted; the timeout starts when the consumer starts running, not
+ * while it waits for a thread.  Latencies, timeouts and failures are added to
+ * {@link SyncStats} under post_sync_&lt;consumer&gt;_millis, _runs, _timeouts and _failures.
+ */
+public class PostSyncPipeline {
+    private static final String LOG_TAG = PostSyncPipeline.class.getSimpleName();
+
+    // Enough for every consumer of a sync to run at once.
+    static final int POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ScheduledThreadPoolExecutor sExecutor;
+    // Timeouts get a thread of their own so they still fire when every consumer is stuck.
+    private static final ScheduledThreadPoolExecutor sTimeouts;
+
+    static {
+        sExecutor = new ScheduledThreadPoolExecutor(POOL_SIZE);
+        sTimeouts = new ScheduledThreadPoolExecutor(1);
+        // Don't keep threads around between syncs, they are an hour apart.
+        sExecutor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        sExecutor.allowCoreThreadTimeOut(true);
+        sTimeouts.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        sTimeouts.allowCoreThreadTimeOut(true);
+    }
+
+    private final Context mContext;
+    private final List<Consumer> mConsumers = new ArrayList<Consumer>();
+
+    public PostSyncPipeline(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * @param name          short name of the consumer, used in logs and stats
+     * @param timeoutMillis how long the consumer may run before it is interrupted
+     */
+    public PostSyncPipeline add(String name, long timeoutMillis, Runnable consumer) {
+        mConsumers.add(new Consumer(name, timeoutMillis, consumer));
+        return this;
+    }
+
+    /**
+     * Starts every consumer and returns without waiting for them.
+     */
+    public void start() {
+        for (Consumer consumer : mConsumers) {
+            sExecutor.execute(consumer);
+        }
+    }
+
+    static String statKey(String consumer, String stat) {
+        return "post_sync_" + consumer + "_" + stat;
+    }
+
+    private class Consumer implements Runnable {
+        final String mName;
+        final long mTimeoutMillis;
+        final Runnable mRunnable;
+        // The pool thread running the consumer, null before and after.  Guarded by this.
+        private Thread mThread;
+
+        Consumer(String name, long timeoutMillis, Runnable runnable) {
+            mName = name;
+            mTimeoutMillis = timeoutMillis;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.elapsedRealtime();
+            synchronized (this) {
+                mThread = Thread.currentThread();
+            }
+            ScheduledFuture<?> timeout = sTimeouts.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    interruptIfRunning();
+                }
+            }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                mRunnable.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, mName + " failed", e);
+                SyncStats.increment(mContext, statKey(mName, "failures"));
+            } finally {
+                timeout.cancel(false);
+                synchronized (this) {
+                    mThread = null;
+                }
+                // Clear an interrupt that came too late for the consumer to see, so it doesn't
+                // hit whatever this pool thread runs next.
+                Thread.interrupted();
+            }
+            long latency = SystemClock.elapsedRealtime() - start;
+            Log.d(LOG_TAG, mName + " took " + latency + "ms");
+            SyncStats.increment(mContext, statKey(mName, "runs"));
+            SyncStats.add(mContext, statKey(mName, "millis"), latency);
+        }
+
+        private synchronized void interruptIfRunning() {
+            if (mThread != null) {
+                Log.w(LOG_TAG, mName + " timed out after " + mTimeoutMillis + "ms");
+                SyncStats.increment(mContext, statKey(mName, "timeouts"));
+                mThread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.AsyncTask;
+import android.os.Build;
+
+/**
+ * Runs {@link RetentionService#compact} off the main thread when the job scheduler finds the
+ * device idle.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class RetentionJobService extends JobService {
+
+    private AsyncTask<JobParameters, Void, Boolean> mTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mTask = new AsyncTask<JobParameters, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(JobParameters... params) {
+                return RetentionService.compact(getApplicationContext());
+            }
+
+            @Override
+            protected void onPostExecute(Boolean done) {
+                // A busy database gets the job run again after the scheduler's backoff.
+                jobFinished(params, !done);
+            }
+        }.execute(params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device is no longer idle.  A compaction commits a chunk at a time and can't be
+        // stopped halfway through one, so let it finish; there is nothing to run again.
+        mTask.cancel(false);
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Compacts the weather database once a day while the device is idle, instead of the sync
+ * deleting past days every time it stores a forecast.  Lollipop and later run it as a job that
+ * waits for the device to be idle and charging; older versions use an inexact alarm that doesn't
+ * wake the device.
+ */
+public class RetentionService extends IntentService {
+    private static final String LOG_TAG = RetentionService.class.getSimpleName();
+
+    private static final int JOB_ID = 19;
+    // PendingIntent request codes of the daily alarm and of a retry after a busy database.
+    private static final int REQUEST_DAILY = 0;
+    private static final int REQUEST_RETRY = 1;
+
+    public RetentionService() {
+        super("RetentionService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!compact(this)) {
+            // Try again once whoever had the database is done, without waiting for tomorrow.
+            AlarmManager alarmManager =
+                    (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_FIFTEEN_MINUTES,
+                    PendingIntent.getService(this, REQUEST_RETRY,
+                            new Intent(this, RetentionService.class), 0));
+        }
+    }
+
+    /**
+     * Ages the weather rows older than their location's history depth out of the database.  Not
+     * on the UI thread.
+     *
+     * @return false if the database was too busy to free its space and this should run again.
+     */
+    static boolean compact(Context context) {
+        long start = SystemClock.elapsedRealtime();
+        int deleted;
+        int pages = 0;
+        boolean retry = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle result = context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_COMPACT, null, null);
+            deleted = result.getInt(WeatherContract.EXTRA_ROWS);
+            pages = result.getInt(WeatherContract.EXTRA_PAGES);
+            retry = result.getBoolean(WeatherContract.EXTRA_RETRY);
+        } else {
+            // No provider methods before Honeycomb: keep today on, like the default depth.
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            deleted = context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(today)});
+        }
+        SyncStats.add(context, SyncStats.RETENTION_DAYS_DELETED, deleted);
+        SyncStats.add(context, SyncStats.RETENTION_PAGES_FREED, pages);
+        Log.d(LOG_TAG, "Compacted in " + (SystemClock.elapsedRealtime() - start) + "ms: "
+                + deleted + " days deleted, " + pages + " pages freed"
+                + (retry ? ", vacuum postponed" : ""));
+        return !retry;
+    }
+
+    /**
+     * Schedules the daily compaction unless it already is.  Schedules don't survive a reboot, so
+     * call this whenever the app starts.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context);
+            return;
+        }
+        Intent intent = new Intent(context, RetentionService.class);
+        if (PendingIntent.getService(context, REQUEST_DAILY, intent,
+                PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HALF_DAY,
+                AlarmManager.INTERVAL_DAY,
+                PendingIntent.getService(context, REQUEST_DAILY, intent, 0));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                // Scheduling it again would restart its period.
+                return;
+            }
+        }
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, RetentionJobService.class))
+                .setPeriodic(AlarmManager.INTERVAL_DAY)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+    }
+}
@@ -3,38 +3,46 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshotCache;
+import com.example.android.sunshine.app.data.ForecastTable;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -44,9 +52,7 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -55,19 +61,25 @@ import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
-import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until SyncScheduler adapts it.
     // 60 seconds (1 minute) * 60 = 1 hour
     public static final int SYNC_INTERVAL = BuildConfig.DEBUG ? 10 : 60 * 60;
-    public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
@@ -84,7 +96,45 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int INDEX_MAX_TEMP = 1;
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
+
+    // What we remember about the last forecast stored for a location
+    private static final String[] SYNC_STATE_PROJECTION = new String[]{
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+            WeatherContract.LocationEntry.COLUMN_FORECAST_DIGEST
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+    private static final int INDEX_LAST_MODIFIED = 1;
+    private static final int INDEX_FORECAST_DIGEST = 2;
+
+    // Stored locations a batch sync refreshes along with the preferred one
+    private static final String[] TRACKED_LOCATION_PROJECTION = new String[]{
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_COORD_LAT = 1;
+    private static final int INDEX_COORD_LONG = 2;
+
+    // At most this many forecasts are downloaded at the same time during a batch sync.
+    private static final int MAX_PARALLEL_FETCHES = 3;
+
+    // How long each post-sync consumer may take.  The notification waits at most
+    // NOTIFICATION_ICON_TIMEOUT_SECONDS for its icon and falls back to the bundled art.
+    private static final long BROADCAST_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 20 * 1000;
+    private static final long WEARABLE_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long NOTIFICATION_ICON_TIMEOUT_SECONDS = 10;
+
     private final GoogleApiClient googleClient;
+    private ForecastTransport mTransport = new PooledHttpTransport();
+    // Null to ask the ConnectivityManager.
+    private Boolean mNetworkAvailable;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -97,30 +147,253 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    /**
+     * A location to sync, and what came of fetching its forecast.
+     */
+    private static class SyncTarget {
+        final String mLocationSetting;
+        // Query by coordinates when set, by location setting otherwise.
+        final String mLatitude;
+        final String mLongitude;
+        final boolean mPreferred;
+
+        @LocationStatus
+        int mLocationStatus = LOCATION_STATUS_UNKNOWN;
+        // The server couldn't be reached or failed on its side, i.e. it may be down.
+        boolean mServerFailed;
+        // What the location row held before this sync.
+        String mStoredEtag;
+        String mStoredLastModified;
+        String mStoredDigest;
+        // Only set when a forecast was downloaded and parsed.
+        ForecastResponse mForecast;
+        String mEtag;
+        String mLastModified;
+
+        SyncTarget(String locationSetting, String latitude, String longitude, boolean preferred) {
+            mLocationSetting = locationSetting;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mPreferred = preferred;
+        }
+    }
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
         googleClient = new GoogleApiClient.Builder(getContext()).addApi(Wearable.API).build();
         googleClient.connect();
     }
 
+    /**
+     * Replaces the transport used to fetch forecasts, e.g. with canned responses in tests.
+     */
+    void setTransport(ForecastTransport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * Overrides whether the device is online, e.g. so tests with a fake transport don't depend on
+     * the test device's network.  Null goes back to asking the ConnectivityManager.
+     */
+    void setNetworkAvailable(Boolean available) {
+        mNetworkAvailable = available;
+    }
+
+    private boolean isNetworkAvailable() {
+        return mNetworkAvailable != null
+                ? mNetworkAvailable : Utility.isNetworkAvailable(getContext());
+    }
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        // Let syncImmediately calls for the same settings attach to this sync.
+        SyncRequestCoalescer coalescer = SyncRequestCoalescer.getInstance(getContext());
+        coalescer.onSyncStarted(SyncRequestCoalescer.keyFor(getContext()));
+        try {
+            performSync(extras, syncResult);
+        } finally {
+            coalescer.onSyncFinished();
+        }
+    }
+
+    private void performSync(Bundle extras, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        Context context = getContext();
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+
+        // A sync the user asked for always goes out: they would rather see it fail again than
+        // see nothing happen at all.
+        long backoffMillis = CircuitBreaker.getRemainingMillis(context, System.currentTimeMillis());
+        if (!manual && backoffMillis > 0) {
+            // The server was down moments ago.  Asking again already would only drain the battery,
+            // and the location status still says the server is down.
+            Log.d(LOG_TAG, "Sync skipped, backing off for another " + backoffMillis / 1000 + "s");
+            SyncStats.increment(context, SyncStats.SYNC_SHORT_CIRCUITED);
+            syncResult.delayUntil = delayUntil(System.currentTimeMillis(), backoffMillis);
+            return;
+        }
 
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        ArrayList<SyncTarget> targets = new ArrayList<SyncTarget>();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (Utility.isLocationLatLonAvailable(context)) {
+            targets.add(new SyncTarget(locationQuery,
+                    String.valueOf(Utility.getLocationLatitude(context)),
+                    String.valueOf(Utility.getLocationLongitude(context)), true));
+        } else {
+            targets.add(new SyncTarget(locationQuery, null, null, true));
+        }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // A sync the user asked for only needs the location they are looking at.  Periodic syncs
+        // also refresh every other location we have weather for, so switching back to one of
+        // them needs no round trip and the radio wakes up once per interval, not once per city.
+        if (!manual) {
+            addTrackedLocations(locationQuery, targets);
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        if (!fetchForecasts(targets)) {
+            Log.d(LOG_TAG, "Sync cancelled");
+            return;
+        }
+        int daysWritten = storeForecasts(targets);
+        if (daysWritten < 0) {
+            // Nothing was stored, so this sync says nothing about the server or the weather.
+            syncResult.stats.numIoExceptions++;
+            return;
+        }
+        boolean reachedServer = hasLocationStatus(targets, LOCATION_STATUS_OK);
+
+        if (reachedServer) {
+            CircuitBreaker.onSuccess(context);
+            syncResult.stats.numInserts += daysWritten;
+        } else if (hasLocationStatus(targets, LOCATION_STATUS_SERVER_DOWN)) {
+            // A soft error lets the sync manager retry with its own backoff.
+            syncResult.stats.numIoExceptions++;
+            // Without a network the server wasn't really asked, so it isn't held against it: the
+            // sync manager retries once the device is back online.  Nor is an answer we merely
+            // couldn't use, only a server that failed or didn't answer at all.
+            if (isNetworkAvailable() && hasServerFailed(targets)) {
+                long now = System.currentTimeMillis();
+                backoffMillis = CircuitBreaker.onFailure(context, now);
+                // delayUntil keeps the sync manager's retry from coming before ours is over.
+                syncResult.delayUntil = delayUntil(now, backoffMillis);
+            }
+        } else if (hasLocationStatus(targets, LOCATION_STATUS_SERVER_INVALID)) {
+            // Retrying won't make the server's answer any more readable.
+            syncResult.stats.numParseExceptions++;
+        }
+
+        // Manual syncs follow what the user does rather than what the weather does, so only
+        // periodic syncs steer the interval.
+        if (!manual) {
+            if (daysWritten > 0) {
+                SyncScheduler.onEvent(context, AdaptiveSyncPolicy.EVENT_CHANGED);
+            } else if (reachedServer) {
+                SyncScheduler.onEvent(context, AdaptiveSyncPolicy.EVENT_UNCHANGED);
+            }
+        }
+    }
+
+    private static boolean hasServerFailed(List<SyncTarget> targets) {
+        for (SyncTarget target : targets) {
+            if (target.mServerFailed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasLocationStatus(List<SyncTarget> targets,
+                                             @LocationStatus int locationStatus) {
+        for (SyncTarget target : targets) {
+            if (target.mLocationStatus == locationStatus) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the end of a backoff starting now, as SyncResult.delayUntil wants it: in seconds
+     * since the epoch, rounded up.
+     */
+    static long delayUntil(long nowMillis, long backoffMillis) {
+        return (nowMillis + backoffMillis + 999) / 1000;
+    }
+
+    /**
+     * Adds a target for every stored location other than the preferred one.  They are queried by
+     * the coordinates the server reported for them, which it always understands.
+     */
+    private void addTrackedLocations(String preferredLocation, List<SyncTarget> targets) {
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TRACKED_LOCATION_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                new String[]{preferredLocation},
+                null);
+        if (locationCursor == null) {
+            return;
+        }
+        while (locationCursor.moveToNext()) {
+            targets.add(new SyncTarget(locationCursor.getString(INDEX_LOCATION_SETTING),
+                    String.valueOf(locationCursor.getDouble(INDEX_COORD_LAT)),
+                    String.valueOf(locationCursor.getDouble(INDEX_COORD_LONG)), false));
+        }
+        locationCursor.close();
+    }
+
+    /**
+     * Downloads and parses the forecasts of all targets, at most MAX_PARALLEL_FETCHES at a time.
+     *
+     * @return false if the sync was interrupted before every fetch finished.
+     */
+    private boolean fetchForecasts(List<SyncTarget> targets) {
+        if (targets.size() == 1) {
+            fetchForecast(targets.get(0));
+            return true;
+        }
+
+        ArrayList<Callable<Object>> fetches = new ArrayList<Callable<Object>>(targets.size());
+        for (final SyncTarget target : targets) {
+            fetches.add(Executors.callable(new Runnable() {
+                @Override
+                public void run() {
+                    fetchForecast(target);
+                }
+            }));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_PARALLEL_FETCHES, targets.size()));
+        try {
+            executor.invokeAll(fetches);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Downloads and parses the forecast of one target.  The outcome is left in the target; nothing
+     * is written here, so this is safe to run for several targets at once.
+     */
+    private void fetchForecast(SyncTarget target) {
+        Context context = getContext();
+
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        ForecastTransport.Response response = null;
 
         String format = "json";
         String units = "metric";
@@ -141,18 +414,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             final String APPID_PARAM = "APPID";
 
             Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+            if (target.mLatitude != null) {
+                uriBuilder.appendQueryParameter(LAT_PARAM, target.mLatitude)
+                        .appendQueryParameter(LON_PARAM, target.mLongitude);
             } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+                uriBuilder.appendQueryParameter(QUERY_PARAM, target.mLocationSetting);
             }
 
             Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
@@ -161,236 +427,407 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
                     .build();
 
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            // If we already have this location's forecast, ask the server to only send it again
+            // if it changed since.
+            HashMap<String, String> requestHeaders = new HashMap<String, String>();
+            String[] syncState = getSyncState(target.mLocationSetting);
+            if (syncState[INDEX_ETAG] != null) {
+                requestHeaders.put("If-None-Match", syncState[INDEX_ETAG]);
+            }
+            if (syncState[INDEX_LAST_MODIFIED] != null) {
+                requestHeaders.put("If-Modified-Since", syncState[INDEX_LAST_MODIFIED]);
+            }
+            target.mStoredEtag = syncState[INDEX_ETAG];
+            target.mStoredLastModified = syncState[INDEX_LAST_MODIFIED];
+            target.mStoredDigest = syncState[INDEX_FORECAST_DIGEST];
+
+            // Send the request to OpenWeatherMap
+            long requestStart = SystemClock.elapsedRealtime();
+            response = mTransport.get(builtUri.toString(), requestHeaders);
+            SyncStats.increment(context, SyncStats.FORECAST_REQUESTS);
+
+            int responseCode = response.getResponseCode();
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                Log.d(LOG_TAG, target.mLocationSetting + ": server error " + responseCode);
+                target.mLocationStatus = LOCATION_STATUS_SERVER_DOWN;
+                target.mServerFailed = true;
+                return;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // The server is fine, it just won't answer this request: asking again won't
+                // change that.  getInputStream() would throw here, so the body, if we need
+                // it at all, is on the error stream.
+                Log.d(LOG_TAG, target.mLocationSetting + ": client error " + responseCode
+                        + " " + readErrorBody(response));
+                target.mLocationStatus = responseCode == HttpURLConnection.HTTP_NOT_FOUND
+                        ? LOCATION_STATUS_INVALID : LOCATION_STATUS_SERVER_INVALID;
+                return;
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we stored last time is still current: nothing to parse, store or tell
+                // anyone about.
+                Log.d(LOG_TAG, target.mLocationSetting + ": forecast not modified");
+                SyncStats.increment(context, SyncStats.FORECAST_NOT_MODIFIED);
+                SyncStats.add(context, SyncStats.FORECAST_NOT_MODIFIED_MILLIS,
+                        SystemClock.elapsedRealtime() - requestStart);
+                target.mLocationStatus = LOCATION_STATUS_OK;
+                return;
+            }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
+            InputStream inputStream = response.getInputStream();
             if (inputStream == null) {
                 // Nothing to do.
+                target.mLocationStatus = LOCATION_STATUS_SERVER_DOWN;
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            ForecastResponse forecast;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Pull the days straight off the stream instead of buffering the whole payload.
+                forecast = ForecastResponse.parse(inputStream);
+            } else {
+                // Read the input stream into a String
+                StringBuilder buffer = new StringBuilder();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                    // But it does make debugging a *lot* easier if you print out the completed
+                    // buffer for debugging.
+                    buffer.append(line).append('\n');
+                }
+
+                if (buffer.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    target.mLocationStatus = LOCATION_STATUS_SERVER_DOWN;
+                    return;
+                }
+                forecast = ForecastResponse.parse(buffer.toString());
+            }
+            SyncStats.add(context, SyncStats.FORECAST_FULL_MILLIS,
+                    SystemClock.elapsedRealtime() - requestStart);
+
+            switch (forecast.getStatus()) {
+                case ForecastResponse.STATUS_OK:
+                    target.mForecast = forecast;
+                    target.mEtag = response.getHeaderField("ETag");
+                    target.mLastModified = response.getHeaderField("Last-Modified");
+                    target.mLocationStatus = LOCATION_STATUS_OK;
+                    break;
+                case ForecastResponse.STATUS_LOCATION_NOT_FOUND:
+                    target.mLocationStatus = LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    target.mLocationStatus = LOCATION_STATUS_SERVER_DOWN;
+                    break;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            target.mLocationStatus = LOCATION_STATUS_SERVER_DOWN;
+            target.mServerFailed = true;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            target.mLocationStatus = LOCATION_STATUS_SERVER_INVALID;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            if (response != null) {
+                // Hands the connection back so the next sync can reuse it.
+                response.close();
             }
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return the body of an error response for the log, or an empty string if there is none.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
+    private static String readErrorBody(ForecastTransport.Response response) {
+        StringBuilder buffer = new StringBuilder();
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            InputStream errorStream = response.getErrorStream();
+            if (errorStream != null) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    buffer.append(line);
                 }
             }
+        } catch (IOException e) {
+            // Only wanted for the log; the status code already says what went wrong.
+        }
+        return buffer.toString();
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * Stores the forecasts the targets fetched and lets everything that shows the weather know
+     * about it.  New locations, the changed days and the sync state of every location go into the
+     * database in a single transaction, with one change notification per uri however many
+     * locations were synced.  Past days are left to {@link RetentionService}.
+     *
+     * @return the number of weather rows written, or -1 if the batch failed and nothing was.
+     */
+    private int storeForecasts(List<SyncTarget> targets) {
+        ForecastTable changedDays = new ForecastTable(targets.size() * 16);
+        // For each changed day of a new location, the operation that inserts the location.
+        int[] locationOperations = new int[targets.size() * 16];
+        ArrayList<SyncTarget> changedTargets = new ArrayList<SyncTarget>(targets.size());
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(targets.size());
+
+        for (SyncTarget target : targets) {
+            ForecastResponse forecast = target.mForecast;
+            if (forecast == null) {
+                continue;
+            }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            long locationId = findLocation(target.mLocationSetting);
+            ForecastTable days = forecast.getDays();
+            String digest = ForecastDigest.digest(days);
+            if (digest.equals(target.mStoredDigest)) {
+                // Same forecast as the one we stored last time: don't write, notify or wake
+                // anyone, unless the server sent new validators for it.
+                SyncStats.increment(getContext(), SyncStats.FORECAST_UNCHANGED);
+                ContentProviderOperation validators = newValidatorsUpdate(locationId, target);
+                if (validators != null) {
+                    operations.add(validators);
+                }
+                Log.d(LOG_TAG, target.mLocationSetting + ": forecast unchanged");
+                continue;
+            }
 
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+            // Only remember the validators and digests once the forecasts they describe are
+            // stored, which the transaction guarantees.
+            int firstDay = changedDays.size();
+            addChangedDays(locationId, days, changedDays);
+            if (locationId == ForecastTable.NO_LOCATION) {
+                // A new location goes in with its days, so a failed store leaves no location
+                // behind that a later sync would take for one with a forecast.
+                locationOperations = setLocationOperation(locationOperations, firstDay,
+                        changedDays.size(), operations.size());
+                operations.add(newLocationInsert(target.mLocationSetting, forecast.getCityName(),
+                        forecast.getCityLatitude(), forecast.getCityLongitude(), target.mEtag,
+                        target.mLastModified, digest));
+            } else {
+                operations.add(newSyncStateUpdate(locationId, target.mEtag,
+                        target.mLastModified, digest));
+            }
+            changedTargets.add(target);
+        }
 
-                double high;
-                double low;
+        if (!operations.isEmpty()) {
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    storeForecastTable(operations, changedDays, locationOperations);
+                } else {
+                    storeForecastValues(operations, changedDays, locationOperations);
+                }
+            } catch (RemoteException | OperationApplicationException | IllegalArgumentException
+                    | SQLException e) {
+                Log.e(LOG_TAG, "Error storing forecasts", e);
+                return -1;
+            }
+        }
+        if (changedDays.size() > 0) {
+            SyncStats.add(getContext(), SyncStats.FORECAST_DAYS_WRITTEN, changedDays.size());
+        }
 
-                String description;
-                int weatherId;
+        for (SyncTarget target : changedTargets) {
+            if (target.mPreferred) {
+                // Everything told below reads the preferred location's new forecast, so read it
+                // once for all of them.
+                ForecastSnapshotCache.publish(getContext().getContentResolver(),
+                        target.mLocationSetting);
+            }
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        if (changedDays.size() > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Fold what this sync wrote into the database now, rather than leaving the log to
+            // grow until SQLite's own checkpoint runs in the middle of some later write.
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_CHECKPOINT, null, null);
+        }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+        if (changedDays.size() > 0) {
+            // The data is committed, so the sync is done.  Whatever shows the weather is told
+            // in parallel on the pipeline's threads.
+            new PostSyncPipeline(getContext())
+                    .add("widgets", BROADCAST_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateWidgets();
+                        }
+                    })
+                    .add("muzei", BROADCAST_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateMuzei();
+                        }
+                    })
+                    .add("notification", NOTIFICATION_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyWeather();
+                        }
+                    })
+                    .add("wearable", WEARABLE_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyWearables();
+                        }
+                    })
+                    .start();
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + changedDays.size() + " days written for "
+                + changedTargets.size() + " of " + targets.size() + " locations");
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        // Only the location the user is looking at has a status to show.
+        for (SyncTarget target : targets) {
+            if (target.mPreferred) {
+                SettingsSnapshot.setLocationStatus(getContext(), target.mLocationStatus);
+            }
+        }
+        return changedDays.size();
+    }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    /**
+     * Compares the days of a new forecast with the weather rows stored for the location, and
+     * adds the days that are not stored yet or hold different values to changedDays, keyed to
+     * the location.
+     */
+    private void addChangedDays(long locationId, ForecastTable days, ForecastTable changedDays) {
+        HashMap<Long, String> storedDays = new HashMap<Long, String>();
+        if (days.size() > 0 && locationId != ForecastTable.NO_LOCATION) {
+            Cursor weatherCursor = getContext().getContentResolver().query(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    ForecastDigest.DAY_COLUMNS,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                    new String[]{Long.toString(locationId), Long.toString(days.getDate(0))},
+                    null);
+            if (weatherCursor != null) {
+                while (weatherCursor.moveToNext()) {
+                    storedDays.put(weatherCursor.getLong(ForecastDigest.INDEX_DATE),
+                            ForecastDigest.dayKey(weatherCursor));
+                }
+                weatherCursor.close();
+            }
+        }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        for (int day = 0; day < days.size(); day++) {
+            String dayKey = ForecastDigest.dayKey(days, day);
+            if (!dayKey.equals(storedDays.get(days.getDate(day)))) {
+                changedDays.add(days, day, locationId);
+            }
+        }
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * @return the ETag, Last-Modified and forecast digest stored for the location setting, indexed
+     * by the INDEX_ constants of SYNC_STATE_PROJECTION.  Any of them may be null.
+     */
+    private String[] getSyncState(String locationSetting) {
+        String[] syncState = new String[SYNC_STATE_PROJECTION.length];
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                SYNC_STATE_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (locationCursor != null) {
+            if (locationCursor.moveToFirst()) {
+                for (int i = 0; i < syncState.length; i++) {
+                    syncState[i] = locationCursor.getString(i);
+                }
+            }
+            locationCursor.close();
+        }
+        return syncState;
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * Writes the days straight from the table's columns, in the same transaction as the
+     * operations.
+     */
+    @TargetApi(11)
+    private void storeForecastTable(ArrayList<ContentProviderOperation> operations,
+                                    ForecastTable days, int[] locationOperations) {
+        Bundle extras = days.toBundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_OPERATIONS, operations);
+        extras.putIntArray(WeatherContract.EXTRA_LOCATION_OPERATIONS, locationOperations);
+        getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_STORE_FORECAST, null, extras);
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * Before Honeycomb there is no call(), so the days go into the batch as ContentValues.
+     */
+    private void storeForecastValues(ArrayList<ContentProviderOperation> operations,
+                                     ForecastTable days, int[] locationOperations)
+            throws RemoteException, OperationApplicationException {
+        for (int day = 0; day < days.size(); day++) {
+            ContentProviderOperation.Builder insert = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(days.toContentValues(day));
+            if (days.getLocationId(day) == ForecastTable.NO_LOCATION) {
+                insert.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationOperations[day]);
             }
+            operations.add(insert.build());
+        }
+        getContext().getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                operations);
+    }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                notifyWearables();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * Records which operation inserts the location of the days from {@code from} to {@code to}.
+     *
+     * @return the array, grown if it was too small.
+     */
+    private static int[] setLocationOperation(int[] locationOperations, int from, int to,
+                                              int operation) {
+        if (locationOperations.length < to) {
+            locationOperations = Arrays.copyOf(locationOperations,
+                    Math.max(to, locationOperations.length * 2));
+        }
+        Arrays.fill(locationOperations, from, to, operation);
+        return locationOperations;
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * @return an update of the validators that differ from the ones stored for the target, or
+     * null if they are all the same.
+     */
+    private static ContentProviderOperation newValidatorsUpdate(long locationId,
+                                                                SyncTarget target) {
+        ContentValues values = new ContentValues();
+        if (!TextUtils.equals(target.mEtag, target.mStoredEtag)) {
+            values.put(WeatherContract.LocationEntry.COLUMN_ETAG, target.mEtag);
         }
+        if (!TextUtils.equals(target.mLastModified, target.mStoredLastModified)) {
+            values.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, target.mLastModified);
+        }
+        if (values.size() == 0) {
+            return null;
+        }
+        return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(values)
+                .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)})
+                .build();
+    }
+
+    private static ContentProviderOperation newSyncStateUpdate(long locationId, String etag,
+                                                               String lastModified,
+                                                               String digest) {
+        return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValue(WeatherContract.LocationEntry.COLUMN_ETAG, etag)
+                .withValue(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, lastModified)
+                .withValue(WeatherContract.LocationEntry.COLUMN_FORECAST_DIGEST, digest)
+                .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)})
+                .build();
     }
 
     int debugCount = 0;
@@ -403,7 +840,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         Log.d("PUTDATA", "Start sending data");
         String locationQuery = Utility.getPreferredLocation(getContext());
         Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+        Cursor cursor = ForecastSnapshotCache.query(getContext().getContentResolver(), weatherUri, NOTIFY_WEATHER_PROJECTION, null);
         if (cursor == null || !cursor.moveToFirst()) {
             return;
         }
@@ -452,13 +889,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if (displayNotifications) {
+        if (SettingsSnapshot.get(context).isNotificationsEnabled()) {
 
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
@@ -469,7 +902,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
 
                 // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                Cursor cursor = ForecastSnapshotCache.query(context.getContentResolver(), weatherUri, NOTIFY_WEATHER_PROJECTION, null);
 
                 if (cursor.moveToFirst()) {
                     int weatherId = cursor.getInt(INDEX_WEATHER_ID);
@@ -501,8 +934,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                                 .asBitmap()
                                 .error(artResourceId)
                                 .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
+                                .into(largeIconWidth, largeIconHeight)
+                                .get(NOTIFICATION_ICON_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
@@ -550,7 +984,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     //refreshing last sync
                     SharedPreferences.Editor editor = prefs.edit();
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                    editor.apply();
                 }
                 cursor.close();
             }
@@ -558,18 +992,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to look up a location in the weather database.
      *
      * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the location, or {@link ForecastTable#NO_LOCATION} if it isn't
+     * stored yet.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    long findLocation(String locationSetting) {
+        long locationId = ForecastTable.NO_LOCATION;
 
-        // First, check if the location with this city name exists in the db
+        // Check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
                 new String[]{WeatherContract.LocationEntry._ID},
@@ -580,33 +1012,45 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
         }
 
         locationCursor.close();
-        // Wait, that worked?  Yes!
         return locationId;
     }
 
+    /**
+     * Helper method to handle insertion of a new location in the weather database, together
+     * with the sync state of the forecast stored for it.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName        A human-readable city name, e.g "Mountain View"
+     * @param lat             the latitude of the city
+     * @param lon             the longitude of the city
+     * @return the insert, whose result holds the row ID of the added location.
+     */
+    private static ContentProviderOperation newLocationInsert(String locationSetting,
+                                                              String cityName, double lat,
+                                                              double lon, String etag,
+                                                              String lastModified,
+                                                              String digest) {
+        // Create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, etag);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, lastModified);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_FORECAST_DIGEST, digest);
+
+        return ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build();
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -627,11 +1071,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Calls in quick succession, or
+     * while a sync with the same settings is running, are merged into one sync.
      *
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncRequestCoalescer.getInstance(context)
+                .request(SyncRequestCoalescer.keyFor(context));
+    }
+
+    /**
+     * Asks the sync manager for an expedited manual sync, without any coalescing.
+     */
+    static void requestManualSync(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -682,7 +1135,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        int syncInterval = SyncScheduler.getInterval(context);
+        SunshineSyncAdapter.configurePeriodicSync(context, syncInterval,
+                AdaptiveSyncPolicy.getFlexTime(syncInterval));
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -697,19 +1152,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
-    }
-
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     *
-     * @param c              Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+        RetentionService.schedule(context);
     }
 }
\ No newline at end of file
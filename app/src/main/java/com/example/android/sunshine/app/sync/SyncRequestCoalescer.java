@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Merges bursts of {@link SunshineSyncAdapter#syncImmediately(Context)} calls into one sync.
+ * <p>
+ * Requests are keyed by the settings a sync depends on: location, coordinates and units.  A
+ * request is only passed on to the sync manager after {@link #WINDOW_MILLIS}, and until the sync
+ * it asked for starts, later requests merge into it whatever their key, since that sync hasn't
+ * read the settings yet.  A request with the same key as a sync that is already running attaches
+ * to that sync instead of queueing another one.  Merged requests are counted in
+ * {@link SyncStats#SYNC_REQUESTS_MERGED}.
+ */
+public class SyncRequestCoalescer {
+    private static final String LOG_TAG = SyncRequestCoalescer.class.getSimpleName();
+
+    // How long a request waits for others to merge with before it goes to the sync manager.
+    static final long WINDOW_MILLIS = 300;
+    // A requested sync that hasn't started by then is assumed to have been dropped.
+    static final long PENDING_TIMEOUT_MILLIS = 60 * 1000;
+
+    interface Requester {
+        void requestSync();
+    }
+
+    private static SyncRequestCoalescer sInstance;
+
+    public static synchronized SyncRequestCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new SyncRequestCoalescer(appContext, new Handler(Looper.getMainLooper()),
+                    new Requester() {
+                        @Override
+                        public void requestSync() {
+                            SunshineSyncAdapter.requestManualSync(appContext);
+                        }
+                    });
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the key of a sync started with the current settings.
+     */
+    public static String keyFor(Context context) {
+        StringBuilder key = new StringBuilder(Utility.getPreferredLocation(context));
+        if (Utility.isLocationLatLonAvailable(context)) {
+            key.append('|').append(Utility.getLocationLatitude(context))
+                    .append('|').append(Utility.getLocationLongitude(context));
+        }
+        return key.append('|').append(Utility.isMetric(context) ? "metric" : "imperial")
+                .toString();
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Requester mRequester;
+
+    // Key of the sync we asked for and that hasn't started yet, or null.
+    private String mPendingKey;
+    private long mPendingSince;
+    // Key of the sync running right now, or null.
+    private String mInFlightKey;
+
+    private final Runnable mRequestSync = new Runnable() {
+        @Override
+        public void run() {
+            mRequester.requestSync();
+        }
+    };
+
+    SyncRequestCoalescer(Context context, Handler handler, Requester requester) {
+        mContext = context;
+        mHandler = handler;
+        mRequester = requester;
+    }
+
+    public synchronized void request(String key) {
+        long now = SystemClock.elapsedRealtime();
+        if (mPendingKey != null && now - mPendingSince < PENDING_TIMEOUT_MILLIS) {
+            // The sync we asked for will read the settings when it starts, so it covers this too.
+            mPendingKey = key;
+            onMerged(key);
+            return;
+        }
+        if (key.equals(mInFlightKey)) {
+            // The running sync is fetching exactly this.
+            onMerged(key);
+            return;
+        }
+        mPendingKey = key;
+        mPendingSince = now;
+        mHandler.removeCallbacks(mRequestSync);
+        mHandler.postDelayed(mRequestSync, WINDOW_MILLIS);
+    }
+
+    /**
+     * Called by the sync adapter when a sync, requested or periodic, starts with the given key.
+     */
+    synchronized void onSyncStarted(String key) {
+        mInFlightKey = key;
+        mPendingKey = null;
+    }
+
+    synchronized void onSyncFinished() {
+        mInFlightKey = null;
+    }
+
+    private void onMerged(String key) {
+        Log.d(LOG_TAG, "Merged sync request for " + key);
+        SyncStats.increment(mContext, SyncStats.SYNC_REQUESTS_MERGED);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the periodic sync on the interval {@link AdaptiveSyncPolicy} asks for.  The policy state
+ * and the most recent decisions live in their own SharedPreferences file; read the trace back with
+ * {@link #getDecisions(Context)}.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+    private static final String PREFS_NAME = "sync_schedule";
+
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_CHANGED_STREAK = "changed_streak";
+    private static final String KEY_DECISIONS = "decisions";
+
+    // How many decisions the trace keeps.
+    static final int MAX_DECISIONS = 100;
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the interval the periodic sync should currently run at, in seconds.
+     */
+    public static int getInterval(Context context) {
+        return getPreferences(context).getInt(KEY_INTERVAL, AdaptiveSyncPolicy.DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Feeds an event to the policy, records the decision and reschedules the periodic sync if
+     * the interval changed.
+     *
+     * @param event one of the AdaptiveSyncPolicy.EVENT_ constants
+     */
+    public static synchronized void onEvent(Context context, String event) {
+        SharedPreferences prefs = getPreferences(context);
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(
+                prefs.getInt(KEY_INTERVAL, AdaptiveSyncPolicy.DEFAULT_INTERVAL),
+                prefs.getInt(KEY_CHANGED_STREAK, 0));
+        AdaptiveSyncPolicy.Decision decision = policy.onEvent(event, System.currentTimeMillis());
+
+        List<String> decisions = new ArrayList<String>(getTrace(prefs));
+        decisions.add(decision.toString());
+        if (decisions.size() > MAX_DECISIONS) {
+            decisions = decisions.subList(decisions.size() - MAX_DECISIONS, decisions.size());
+        }
+        prefs.edit()
+                .putInt(KEY_INTERVAL, policy.getInterval())
+                .putInt(KEY_CHANGED_STREAK, policy.getChangedStreak())
+                .putString(KEY_DECISIONS, TextUtils.join("\n", decisions))
+                .apply();
+
+        if (decision.intervalAfter != decision.intervalBefore) {
+            Log.d(LOG_TAG, "Sync interval " + decision.intervalBefore + "s -> "
+                    + decision.intervalAfter + "s after " + event);
+            SunshineSyncAdapter.configurePeriodicSync(context, decision.intervalAfter,
+                    AdaptiveSyncPolicy.getFlexTime(decision.intervalAfter));
+        }
+    }
+
+    /**
+     * @return the recorded decisions, oldest first.
+     */
+    public static List<AdaptiveSyncPolicy.Decision> getDecisions(Context context) {
+        List<String> trace = getTrace(getPreferences(context));
+        List<AdaptiveSyncPolicy.Decision> decisions =
+                new ArrayList<AdaptiveSyncPolicy.Decision>(trace.size());
+        for (String line : trace) {
+            decisions.add(AdaptiveSyncPolicy.Decision.fromString(line));
+        }
+        return decisions;
+    }
+
+    public static void reset(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+
+    private static List<String> getTrace(SharedPreferences prefs) {
+        String trace = prefs.getString(KEY_DECISIONS, "");
+        if (trace.length() == 0) {
+            return new ArrayList<String>();
+        }
+        return Arrays.asList(trace.split("\n"));
+    }
+}
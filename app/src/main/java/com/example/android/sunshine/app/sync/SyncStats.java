@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Map;
+
+/**
+ * Counters describing what the sync adapter did, kept in their own SharedPreferences file so
+ * they survive process restarts and don't wake the settings listeners.  Dump them with
+ * {@link #log(Context)} or pull the file off a debug device.
+ */
+public class SyncStats {
+    private static final String LOG_TAG = SyncStats.class.getSimpleName();
+    private static final String PREFS_NAME = "sync_stats";
+
+    // Number of forecast requests sent to the server.
+    public static final String FORECAST_REQUESTS = "forecast_requests";
+    // Requests answered with 304 Not Modified: nothing was downloaded, parsed or written.
+    public static final String FORECAST_NOT_MODIFIED = "forecast_not_modified";
+    // Downloaded forecasts identical to the stored one: nothing was written or broadcast.
+    public static final String FORECAST_UNCHANGED = "forecast_unchanged";
+    // Weather rows written because they were new or had changed.
+    public static final String FORECAST_DAYS_WRITTEN = "forecast_days_written";
+    // Milliseconds spent in requests that did download and store a forecast.
+    public static final String FORECAST_FULL_MILLIS = "forecast_full_millis";
+    // Milliseconds spent in requests answered with 304 Not Modified.
+    public static final String FORECAST_NOT_MODIFIED_MILLIS = "forecast_not_modified_millis";
+    // Syncs skipped without a request because the server was recently down.
+    public static final String SYNC_SHORT_CIRCUITED = "sync_short_circuited";
+    // syncImmediately calls merged into a sync that was already requested or running.
+    public static final String SYNC_REQUESTS_MERGED = "sync_requests_merged";
+    // Weather rows the retention compactor aged out of the database.
+    public static final String RETENTION_DAYS_DELETED = "retention_days_deleted";
+    // Database pages the retention compactor gave back to the file system.
+    public static final String RETENTION_PAGES_FREED = "retention_pages_freed";
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static void increment(Context context, String counter) {
+        add(context, counter, 1);
+    }
+
+    public static synchronized void add(Context context, String counter, long amount) {
+        SharedPreferences prefs = getPreferences(context);
+        prefs.edit().putLong(counter, prefs.getLong(counter, 0) + amount).apply();
+    }
+
+    public static long get(Context context, String counter) {
+        return getPreferences(context).getLong(counter, 0);
+    }
+
+    public static void reset(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+
+    public static void log(Context context) {
+        for (Map.Entry<String, ?> counter : getPreferences(context).getAll().entrySet()) {
+            Log.i(LOG_TAG, counter.getKey() + " = " + counter.getValue());
+        }
+    }
+}
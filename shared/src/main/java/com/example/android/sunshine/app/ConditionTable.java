@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+
+/**
+ * The kinds of weather OpenWeatherMap condition codes are drawn as, in a dense table indexed by
+ * code.  Both the app and the watch face build against this class, so an icon or artwork chosen
+ * for a code is the same everywhere; each looks its own drawables up by {@link #getKind(int)}.
+ * <p>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class ConditionTable {
+
+    public static final int KIND_NONE = -1;
+    public static final int KIND_STORM = 0;
+    public static final int KIND_LIGHT_RAIN = 1;
+    public static final int KIND_RAIN = 2;
+    public static final int KIND_SNOW = 3;
+    public static final int KIND_FOG = 4;
+    public static final int KIND_CLEAR = 5;
+    public static final int KIND_LIGHT_CLOUDS = 6;
+    public static final int KIND_CLOUDS = 7;
+    public static final int KIND_COUNT = 8;
+
+    /** Codes are below this.  A table indexed by code needs this many entries. */
+    public static final int CODE_LIMIT = 1000;
+
+    // The artwork of a kind is named art_<name>, both as a drawable and in an art pack's urls.
+    // these indices must match the KIND_ constants
+    private static final String[] ART_NAMES = {
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final byte[] KINDS = new byte[CODE_LIMIT];
+
+    static {
+        checkKindTable("ConditionTable.ART_NAMES", ART_NAMES.length);
+        Arrays.fill(KINDS, (byte) KIND_NONE);
+        fill(200, 232, KIND_STORM);
+        fill(300, 321, KIND_LIGHT_RAIN);
+        fill(500, 504, KIND_RAIN);
+        fill(511, 511, KIND_SNOW);
+        fill(520, 531, KIND_RAIN);
+        fill(600, 622, KIND_SNOW);
+        fill(701, 761, KIND_FOG);
+        fill(781, 781, KIND_STORM);
+        fill(800, 800, KIND_CLEAR);
+        fill(801, 801, KIND_LIGHT_CLOUDS);
+        fill(802, 804, KIND_CLOUDS);
+    }
+
+    private ConditionTable() {
+    }
+
+    private static void fill(int firstCode, int lastCode, int kind) {
+        Arrays.fill(KINDS, firstCode, lastCode + 1, (byte) kind);
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the KIND_ constant the code is drawn as, or {@link #KIND_NONE} for codes without
+     * artwork.
+     */
+    public static int getKind(int weatherId) {
+        return weatherId >= 0 && weatherId < CODE_LIMIT ? KINDS[weatherId] : KIND_NONE;
+    }
+
+    /**
+     * Checks that a table indexed by kind has an entry for every kind, so that a kind added here
+     * fails where its table is built rather than where it is first drawn.
+     *
+     * @param name   of the table, for the message
+     * @param length of the table
+     * @throws IllegalStateException if the table has more or fewer entries than there are kinds.
+     */
+    public static void checkKindTable(String name, int length) {
+        if (length != KIND_COUNT) {
+            throw new IllegalStateException(
+                    name + " has " + length + " entries for " + KIND_COUNT + " kinds");
+        }
+    }
+
+    /**
+     * @return the art name of a kind, such as "light_rain", or null for {@link #KIND_NONE}.
+     */
+    public static String getArtName(int kind) {
+        return kind >= 0 && kind < KIND_COUNT ? ART_NAMES[kind] : null;
+    }
+}